@@ -1,5 +1,6 @@
 package db4e;
 
+import db4e.controller.HeadlessExport;
 import java.awt.Desktop;
 import java.io.IOException;
 import java.net.URI;
@@ -33,7 +34,7 @@ public class Main {
    }
 
    static String TITLE = "Compendium downloader";
-   static String VERSION = "3.5.3";
+   public static final String VERSION = "3.5.3";
    static String UPDATE_TIME = "2017-02-03"; // Any release beyond this time is an update
 
    // Global log ang preference
@@ -47,6 +48,9 @@ public class Main {
       if ( simulate.get() && ! TITLE.contains( "(development)" ) )
          simulate.set( false );
       log.setLevel( Level.CONFIG );
+      if ( args.length > 0 && args[0].startsWith( "--" ) ) {
+         System.exit( HeadlessExport.run( args ) );
+      }
       try {
          Class.forName( "javafx.stage.Stage" ); // OpenJDK does not come with JavaFX by default
          MainApp.run( args );
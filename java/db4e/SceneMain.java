@@ -91,7 +91,7 @@ public class SceneMain extends Scene {
    final TextField txtTimeout  = JavaFX.tooltip( new TextField( Integer.toString( Math.max( MIN_TIMEOUT_MS / 1000, prefs.getInt( "download.timeout", DEF_TIMEOUT_MS / 1000 ) ) ) ),
            "Download timeout in seconds.  If changed mid-way, will apply in next action not current action; stop and restart if necessary." );
    final TextField txtInterval  = JavaFX.tooltip( new TextField( Integer.toString( Math.max( MIN_INTERVAL_MS, prefs.getInt( "download.interval", DEF_INTERVAL_MS ) ) ) ),
-           "Minimal interval, in millisecond, between each download action.  If changed mid-way, will apply in next action not current action; stop and restart if necessary." );
+           "Minimal interval, in millisecond, between each download action.  Actual interval grows when the server slows down, and shrinks back to this when it recovers." );
    final TextField txtRetry  = JavaFX.tooltip( new TextField( Integer.toString( Math.max( 0, prefs.getInt( "download.retry", DEF_RETRY_COUNT ) ) ) ),
            "Number of timeout retry.  Only apply to timeout errors." );
    private final CheckBox chkDebug = JavaFX.tooltip( new CheckBox( "Show debug tabs" ),
@@ -133,6 +133,19 @@ public class SceneMain extends Scene {
          Controller.TIMEOUT_MS = Integer.parseUnsignedInt( txtTimeout.getText() ) * 1000;
          Controller.INTERVAL_MS = Integer.parseUnsignedInt( txtInterval.getText() );
          Controller.RETRY_COUNT = Integer.parseUnsignedInt( txtRetry.getText() );
+         Controller.MAX_INTERVAL_MS = Math.max( 0, prefs.getInt( "download.max_interval", Controller.DEF_MAX_INTERVAL_MS ) );
+         Controller.CONTENT_CACHE_MB = Math.max( 0, prefs.getInt( "export.content_cache_mb", 0 ) );
+         Controller.CONVERT_CHUNK = Math.max( -1, prefs.getInt( "export.convert_chunk", -1 ) );
+         Controller.COMPRESS_CONTENT = prefs.getBoolean( "download.compress_content", false );
+         Controller.SAVE_BATCH = Math.max( 1, prefs.getInt( "download.save_batch", 50 ) );
+         Controller.SAVE_BATCH_MS = Math.max( 0, prefs.getInt( "download.save_batch_ms", 10_000 ) );
+         Controller.RAW_SPLIT = prefs.getBoolean( "export.raw_split", false );
+         Controller.SQL_BULK = prefs.getBoolean( "export.sql_bulk", false );
+         Controller.XLSX_DEFLATE_LEVEL = Math.max( -1, Math.min( 9, prefs.getInt( "export.xlsx_deflate_level", -1 ) ) );
+         Controller.DOWNLOAD_SESSIONS = Math.max( 1, prefs.getInt( "download.sessions", 1 ) );
+         Controller.DIRECT_FETCH = prefs.getBoolean( "download.direct_fetch", false );
+         String compendium = prefs.get( "download.compendium_url", Controller.DEF_COMPENDIUM_URL );
+         Controller.COMPENDIUM_URL = compendium.endsWith( "/" ) ? compendium : compendium + "/";
       } catch ( NumberFormatException ignored ) {}
       setRoot( pnlC );
    }
@@ -0,0 +1,68 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.data.Entry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.tmatesoft.sqljet.core.SqlJetException;
+import sheepy.util.Utils;
+
+/**
+ * Size-bounded LRU cache of entry content, loaded from database on demand.
+ * Size is counted in characters; the least recently used contents are dropped when it is full.
+ */
+class ContentCache implements Function<Entry, String> {
+
+   private static final Logger log = Main.log;
+
+   private final DbAbstraction dal;
+   private final long capacity; // In chars
+   private final LinkedHashMap<String, String> cache = new LinkedHashMap<>( 1024, 0.75f, true );
+   private long size = 0;
+   private int hit, miss;
+
+   ContentCache ( DbAbstraction dal, int sizeMB ) {
+      this.dal = dal;
+      this.capacity = sizeMB * 1024L * 1024L / 2;
+   }
+
+   @Override public String apply ( Entry entry ) {
+      synchronized ( cache ) {
+         String content = cache.get( entry.id );
+         if ( content != null ) {
+            ++hit;
+            return content;
+         }
+         ++miss;
+      }
+      final String content;
+      try {
+         content = DbAbstraction.await( dal.loadEntityContent( entry.id ) );
+      } catch ( SqlJetException ex ) {
+         log.log( Level.WARNING, "Cannot load {0}: {1}", new Object[]{ entry.id, Utils.stacktrace( ex ) } );
+         throw new IllegalStateException( "Cannot load " + entry.name, ex );
+      }
+      if ( content == null ) return null;
+      synchronized ( cache ) {
+         if ( cache.put( entry.id, content ) == null )
+            size += content.length();
+         for ( Iterator<Map.Entry<String, String>> i = cache.entrySet().iterator() ; size > capacity && i.hasNext() ; ) {
+            size -= i.next().getValue().length();
+            i.remove();
+         }
+      }
+      return content;
+   }
+
+   void clear () {
+      synchronized ( cache ) {
+         log.log( Level.FINE, "Content cache: {0} hit, {1} miss, {2} chars", new Object[]{ hit, miss, size } );
+         cache.clear();
+         size = 0;
+      }
+   }
+}
@@ -0,0 +1,112 @@
+package db4e.controller;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of entry content, stored as blob.
+ *
+ * Format: one byte of dictionary version, then raw deflate of UTF-8 content,
+ * using a preset dictionary of common compendium html.
+ * A dictionary must never change once released; add a new version instead.
+ *
+ * Thread safe.  Each thread reuses its own deflater and inflater.
+ */
+final class ContentCodec {
+
+   private ContentCodec () {}
+
+   private static final byte VERSION = 1;
+
+   // Common fragments of raw compendium html.  Deflate prefers recent matches, so the most common ones are at the end.
+   // Version 1 is provisional: it is assembled by hand from markup the converters handle, not trained on downloaded html.
+   // A dictionary trained on a real download should ship as version 2, and version 1 must remain readable,
+   // since rows written with it are never rewritten.
+   private static final byte[] DICTIONARY = (
+        "Player's Handbook 2Player's Handbook 3Dungeon Master's Guide 2Monster Manual 2Monster Manual 3Adventurer's Vault 2"
+      + "Arcane PowerDivine PowerMartial PowerPrimal PowerPsionic PowerHeroes of the Forgotten KingdomsHeroes of the Fallen Lands"
+      + "Dragon Magazine Dungeon Magazine Forgotten Realms Player's GuideEberron Player's GuideDark Sun Campaign Setting"
+      + "Prerequisite</b>: Benefit</b>: Keywords</b>: Requirement</b>: Trigger</b>: Special</b>: Sustain Minor</b>: "
+      + "Aftereffect</b>: Miss</b>: Half damage.Effect</b>: Target</b>: One creatureEach enemy in burstEach creature in blast"
+      + "<b>Close</b> burst 1<b>Close</b> blast 3<b>Area</b> burst 1 within 10 squares<b>Ranged</b> 10<b>Melee</b> weapon"
+      + "Strength vs. ACDexterity vs. ReflexConstitution vs. FortitudeIntelligence vs. ReflexWisdom vs. WillCharisma vs. Will"
+      + "Minor Action</b>Move Action</b>Free Action</b>Immediate Interrupt</b>Immediate Reaction</b>Opportunity Action</b>"
+      + "<b>Arcane</b>, <b>Divine</b>, <b>Martial</b>, <b>Primal</b>, <b>Psionic</b>, <b>Shadow</b>, <b>Implement</b>, <b>Weapon</b>"
+      + "<b>Fire</b>, <b>Cold</b>, <b>Lightning</b>, <b>Thunder</b>, <b>Radiant</b>, <b>Necrotic</b>, <b>Psychic</b>, <b>Poison</b>"
+      + "until the end of your next turnuntil the end of the target's next turn(save ends)ongoing 5 damage"
+      + " gains a +2 power bonus to attack rollsa -2 penalty to all defensesis knocked proneslidepushshiftteleport"
+      + "<table class=\"magicitem\"><tbody><tr><td class=\"mic1\">Lvl </td><td class=\"mic2\">+1</td><td class=\"mic3\" align=\"right\"> gp</td></tr>"
+      + "</tbody></table><p class=\"mistat indent1\"><b>Enhancement</b>: attack rolls and damage rolls</p>"
+      + "<p class=\"mistat indent1\"><b>Critical</b>: +1d6 damage per plus</p><p class=\"mistat indent1\"><b>Property</b>: "
+      + "<p class=\"mistat indent1\"><b>Power</b> (<b>Daily</b>): <p class=\"mistat indent1\"><b>Power</b> (<b>Encounter</b>): "
+      + "<h1 class=\"mihead\"><span class=\"milevel\">Level </span></h1><p class=\"miflavor\">"
+      + "<table class=\"bodytable\"><tbody><tr><td><b>HP</b> ; <b>Bloodied</b> </td><td class=\"rightalign\"><b>Initiative</b> +"
+      + "<b>AC</b> , <b>Fortitude</b> , <b>Reflex</b> , <b>Will</b> <b>Speed</b> <b>Perception</b> +"
+      + "<p class=\"flavorIndent\">Attack: Melee 1 (one creature); + vs. AC</p><p class=\"flavorIndent\">Hit: damage.</p>"
+      + "<b>Str</b> (+) &nbsp;&nbsp;&nbsp;&nbsp; <b>Dex</b> (+) &nbsp;&nbsp;&nbsp;&nbsp; <b>Wis</b> (+)</p>"
+      + "<b>Con</b> (+) &nbsp;&nbsp;&nbsp;&nbsp; <b>Int</b> (+) &nbsp;&nbsp;&nbsp;&nbsp; <b>Cha</b> (+)</p>"
+      + "<h2>Standard Actions</h2><h2>Minor Actions</h2><h2>Triggered Actions</h2><h2>Traits</h2>"
+      + "<p class=\"flavor alt\"><img src=\"http://www.wizards.com/dnd/images/symbol/S2.gif\"> <b></b> "
+      + "<img src=\"http://www.wizards.com/dnd/images/symbol/x.gif\"> <b>At-Will</b></p>"
+      + "<h1 class=\"monster\"><br/><span class=\"type\">Medium natural humanoid</span><br/><span class=\"level\">Level  Soldier<br/>XP </span></h1>"
+      + "<h1 class=\"dailypower\"><h1 class=\"encounterpower\"><h1 class=\"atwillpower\"><span class=\"level\"> Attack </span></h1>"
+      + "<p class=\"flavor\"><i></i></p><p class=\"powerstat\"><b>At-Will</b>&nbsp;&nbsp;&nbsp;&nbsp;<img src=\"images/bullet.gif\" alt=\"\"> "
+      + "<p class=\"powerstat\"><b>Encounter</b>&nbsp;&nbsp;&nbsp;&nbsp;<img src=\"images/bullet.gif\" alt=\"\"> "
+      + "<p class=\"powerstat\"><b>Daily</b>&nbsp;&nbsp;&nbsp;&nbsp;<img src=\"images/bullet.gif\" alt=\"\"> "
+      + "<b>Standard Action</b>&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;<p class=\"powerstat\"><b>Target</b>: <p class=\"powerstat\"><b>Attack</b>: "
+      + "<p class=\"flavor\"><b>Hit</b>: [W] + modifier damage.<p class=\"flavor\"><b>Effect</b>: "
+      + "<h1 class=\"player\"></h1><p class=\"flavor\"><b></b>: </p><p class=\"flavor\">"
+      + "<br/>Update (4/1/2009)<br/> <p class=\"publishedIn\">Published in "
+      + "<a href=\"http://www.wizards.com/default.asp?x=products/dndacc/\" target=\"_new\"></a>, page ."
+      + "Player's HandbookDungeon Master's GuideMonster ManualAdventurer's Vault</p>"
+   ).getBytes( UTF_8 );
+
+   private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial( () -> new Deflater( Deflater.BEST_COMPRESSION, true ) );
+   private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial( () -> new Inflater( true ) );
+
+   static byte[] compress ( String content ) {
+      final byte[] data = content.getBytes( UTF_8 );
+      final Deflater deflater = deflaters.get();
+      deflater.reset();
+      deflater.setDictionary( DICTIONARY );
+      deflater.setInput( data );
+      deflater.finish();
+      byte[] result = new byte[ data.length / 2 + 64 ];
+      result[ 0 ] = VERSION;
+      int len = 1;
+      while ( ! deflater.finished() ) {
+         if ( len == result.length ) result = Arrays.copyOf( result, result.length * 2 );
+         len += deflater.deflate( result, len, result.length - len );
+      }
+      return Arrays.copyOf( result, len );
+   }
+
+   /**
+    * @throws IllegalArgumentException If the data is corrupted or of unknown version.
+    */
+   static String decompress ( byte[] data ) {
+      if ( data.length == 0 || data[ 0 ] != VERSION )
+         throw new IllegalArgumentException( "Unknown content compression " + ( data.length == 0 ? "(empty)" : data[ 0 ] ) );
+      final Inflater inflater = inflaters.get();
+      inflater.reset();
+      inflater.setDictionary( DICTIONARY ); // Raw deflate has no header to request it
+      inflater.setInput( data, 1, data.length - 1 );
+      final ByteArrayOutputStream result = new ByteArrayOutputStream( data.length * 5 );
+      final byte[] buf = new byte[ 8192 ];
+      try {
+         while ( ! inflater.finished() ) {
+            int len = inflater.inflate( buf );
+            if ( len == 0 && inflater.needsInput() && ! inflater.finished() )
+               throw new IllegalArgumentException( "Compressed content truncated" );
+            result.write( buf, 0, len );
+         }
+      } catch ( DataFormatException ex ) {
+         throw new IllegalArgumentException( "Corrupted compressed content", ex );
+      }
+      return new String( result.toByteArray(), UTF_8 );
+   }
+}
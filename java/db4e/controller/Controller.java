@@ -18,8 +18,6 @@ import java.io.File;
 import java.io.StringWriter;
 import java.nio.file.Files;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
@@ -48,6 +46,7 @@ import javax.xml.transform.stream.StreamResult;
 import netscape.javascript.JSException;
 import org.tmatesoft.sqljet.core.table.SqlJetDb;
 import org.w3c.dom.Document;
+import sheepy.util.JavaFX;
 import sheepy.util.Utils;
 import sheepy.util.ui.ConsoleWebView;
 import sheepy.util.ui.ObservableArrayList;
@@ -66,17 +65,32 @@ public class Controller {
    public static final int MIN_INTERVAL_MS = 0;
    public static final int DEF_TIMEOUT_MS = 30_000;
    public static final int DEF_INTERVAL_MS = 1_000;
+   public static final int DEF_MAX_INTERVAL_MS = 30_000;
    public static final int DEF_RETRY_COUNT = 5;
+   public static final String DEF_COMPENDIUM_URL = "http://www.wizards.com/dndinsider/compendium/";
 
    public static volatile int TIMEOUT_MS = DEF_TIMEOUT_MS;
-   public static volatile int INTERVAL_MS = DEF_INTERVAL_MS;
+   public static volatile int INTERVAL_MS = DEF_INTERVAL_MS; // Min interval.  Actual interval adapts to server response.
+   public static volatile int MAX_INTERVAL_MS = DEF_MAX_INTERVAL_MS; // Max interval when server is slow or timing out
    public static volatile int RETRY_COUNT = DEF_RETRY_COUNT;
+   public static volatile int CONTENT_CACHE_MB = 0; // 0 = Load all content to memory before export
+   public static volatile int CONVERT_CHUNK = -1; // Entries per parallel conversion range. -1 = Auto, 0 = One thread per category
+   public static volatile boolean COMPRESS_CONTENT = false; // Store newly downloaded content compressed
+   public static volatile int SAVE_BATCH = 50; // Max entries per save transaction
+   public static volatile int SAVE_BATCH_MS = 10_000; // Max delay before queued entries are saved
+   public static volatile int DOWNLOAD_SESSIONS = 1; // Parallel entry download sessions. 1 = Download with main browser
+   public static volatile boolean DIRECT_FETCH = false; // Download entries over plain http instead of browser
+   public static volatile boolean RAW_SPLIT = false; // Raw json, csv, tsv, and sql export write one file per category with a manifest
+   public static volatile boolean SQL_BULK = false; // Raw sql export use COPY (Postgre) or LOAD DATA (MySQL) instead of INSERT
+   public static volatile int XLSX_DEFLATE_LEVEL = -1; // Deflate level of raw xlsx, 0 to 9.  -1 = Default
+   public static volatile String COMPENDIUM_URL = DEF_COMPENDIUM_URL; // May point to a local stand-in server for testing
 
    public static final String DB_NAME = "dnd4_compendium.database";
 
    // Database variables are set on open().
    private volatile SqlJetDb db;
    private volatile DbAbstraction dal;
+   private ContentCache contentCache;
    private Thread currentThread;
    private final ProgressState state;
    private boolean hasReset = false;
@@ -91,6 +105,9 @@ public class Controller {
    private final Timer scheduler = new Timer();
    private final int threads = Math.max( 2, Math.min( Runtime.getRuntime().availableProcessors(), 22 ) );
    private final ExecutorService threadPool = Executors.newFixedThreadPool( threads );
+   private final ExportScheduler exportScheduler = new ExportScheduler( threads - 1 );
+   private volatile String userAgent;
+   private final Pacer pacer = new Pacer(); // Shared by all browsing
 
    public Controller ( SceneMain main ) {
       gui = main;
@@ -98,7 +115,7 @@ public class Controller {
       engine = browser.getWebEngine();
       crawler = new Crawler( engine );
       state = new ProgressState( ( progress ) -> {
-         checkStop( null );
+         if ( Thread.currentThread() == currentThread ) checkStop( null ); // Not db or export threads
          main.setProgress( progress );
       } );
    }
@@ -247,13 +264,15 @@ public class Controller {
       stop();
       scheduler.cancel();
       threadPool.shutdown();
+      exportScheduler.shutdown();
       closeDb();
    }
 
    private synchronized void closeDb () {
       if ( db != null ) try {
          log.log( Level.FINE, "Closing database" );
-         db.close();
+         setContentCache( null );
+         DbAbstraction.await( dal.close() ); // Save pending entries and close db
          db = null;
          dal = null;
       } catch ( Exception ex ) {
@@ -265,16 +284,16 @@ public class Controller {
       gui.setStatus( "Checking data" );
       try {
          synchronized ( categories ) {
-            dal.setDb( db, categories, state );
+            DbAbstraction.await( dal.setDb( db, categories, state, JavaFX::runNow ) );
          }
 
       } catch ( Exception e1 ) {
 
          log.log( Level.CONFIG, "Create tables because {0}", Utils.stacktrace( e1 ) );
          try {
-            dal.createTables();
+            DbAbstraction.await( dal.createTables() );
             synchronized ( categories ) {
-               dal.setDb( db, categories, state );
+               DbAbstraction.await( dal.setDb( db, categories, state, JavaFX::runNow ) );
             }
 
          } catch ( Exception e2 ) {
@@ -327,8 +346,9 @@ public class Controller {
       gui.setTitle( "Downloading" );
       gui.stateRunning();
       gui.setProgress( -1.0 );
-      log.log( Level.CONFIG, "WebView Agent: {0}", engine.getUserAgent() );
-      log.log( Level.CONFIG, "Timeout {0} ms / Interval {1} ms ", new Object[]{ TIMEOUT_MS, INTERVAL_MS } );
+      userAgent = engine.getUserAgent();
+      log.log( Level.CONFIG, "WebView Agent: {0}", userAgent );
+      log.log( Level.CONFIG, "Timeout {0} ms / Interval {1} to {2} ms ", new Object[]{ TIMEOUT_MS, INTERVAL_MS, MAX_INTERVAL_MS } );
       return runTask( () -> {
          setPriority( Thread.NORM_PRIORITY );
          if ( Main.simulate.get() )
@@ -366,7 +386,7 @@ public class Controller {
          List<Entry> entries = crawler.openCategory();
 
          checkStop( "Saving " + name );
-         dal.saveEntryList( category, entries );
+         DbAbstraction.await( dal.saveEntryList( category, entries ) );
 
          checkStop( "Listed " + name );
       }
@@ -374,46 +394,50 @@ public class Controller {
       state.update();
    }
 
+   /**
+    * Download entries through the fetch, extract, and persist pipeline.
+    * With one session and no direct fetch, pages are fetched by the main browser, which is also used to log in.
+    */
    private void downloadEntities () throws Exception {
-      Instant[] pastFinishTime = new Instant[ 64 ]; // Past 64 finish time
-      int remainingCount = state.total - state.get(), second;
-      for ( Category category : categories ) {
-         for ( Entry entry : category.entries ) {
-            if ( ! entry.contentDownloaded ) {
-               String name = entry.name + " (" + category.name + ")";
-               runAndCheckLogin( name, () -> crawler.openEntry( entry ) );
-               crawler.getEntry( entry );
-               dal.saveEntry( entry );
-
-               category.downloaded_entry.set( category.downloaded_entry.get() + 1 );
-               state.addOne();
-
-               --remainingCount;
-               if ( remainingCount > 0 ) {
-                  System.arraycopy( pastFinishTime, 1, pastFinishTime, 0, 63 );
-                  pastFinishTime[63] = Instant.now();
-                  if ( pastFinishTime[56] == null ) continue;
-                  // Remaining time
-                  if ( pastFinishTime[0] != null ) { // Use all 64 entry to estimate time
-                     Duration sessionTime = Duration.between( pastFinishTime[0], Instant.now() );
-                     second = (int) Math.ceil( ( sessionTime.getSeconds() / (double) 64 ) * remainingCount );
-                  } else { // Use 8 entry to estimate time
-                     Duration sessionTime = Duration.between( pastFinishTime[56], Instant.now() );
-                     second = (int) Math.ceil( ( sessionTime.getSeconds() / (double) 8 ) * remainingCount );
-                  }
-                  // And make sure it's not less than current interval
-                  second = Math.max( second, (int) Math.ceil( remainingCount * (double) INTERVAL_MS / 1000 ) );
-                  // Manual format and display
-                  if ( second >= 86400 )    gui.setTitle( ( second / 86400 ) + "d " + ( ( second % 86400 ) / 3600 ) + "h remain" );
-                  if ( second >= 3600 )     gui.setTitle( ( second / 3600 ) + "h " + ( ( second % 3600 ) / 60 )  + "m remain" );
-                  else if ( second >= 100 ) gui.setTitle( ( second / 60 )  + "m remain" );
-                  else                      gui.setTitle( second + "s remain" );
+      final int sessionCount = DOWNLOAD_SESSIONS;
+      List<FetchSession> sessions = new ArrayList<>( sessionCount );
+      try {
+         checkStop( "Starting " + sessionCount + " sessions" );
+         if ( sessionCount <= 1 && ! DIRECT_FETCH )
+            sessions.add( WebSession.of( browser ) );
+         else for ( int i = 0 ; i < sessionCount ; i++ )
+            sessions.add( DIRECT_FETCH ? new HttpSession( userAgent ) : WebSession.create() );
+         final long[] lastLog = { System.currentTimeMillis() };
+         new ParallelCrawler( sessions, pacer, dal, state ).download( categories,
+            () -> runAndCheckLogin( "Logging in", crawler::randomGlossary ),
+            ( crawl ) -> {
+               final int remainingCount = crawl.remaining();
+               checkStop( "Downloading with " + sessionCount + " sessions, " + remainingCount + " remain" );
+               if ( System.currentTimeMillis() - lastLog[0] >= 30_000 ) {
+                  lastLog[0] = System.currentTimeMillis();
+                  log.log( Level.FINE, "Download stages: {0}; {1}; {2}; interval {3} ms",
+                     new Object[]{ crawl.fetch, crawl.extract, crawl.persist, pacer.interval() } );
                }
-            }
-         }
+               final int second = pacer.remainingSeconds( remainingCount );
+               if ( second >= 0 && remainingCount > 0 ) showRemaining( second );
+            } );
+      } finally {
+         sessions.forEach( FetchSession::close );
+         state.add( DbAbstraction.await( dal.flushEntries() ) ); // Stop, error, or done
       }
    }
 
+   /**
+    * Show estimated remaining download time on title.
+    */
+   private void showRemaining ( int second ) {
+      // Manual format and display
+      if ( second >= 86400 )    gui.setTitle( ( second / 86400 ) + "d " + ( ( second % 86400 ) / 3600 ) + "h remain" );
+      if ( second >= 3600 )     gui.setTitle( ( second / 3600 ) + "h " + ( ( second % 3600 ) / 60 )  + "m remain" );
+      else if ( second >= 100 ) gui.setTitle( ( second / 60 )  + "m remain" );
+      else                      gui.setTitle( second + "s remain" );
+   }
+
    /////////////////////////////////////////////////////////////////////////////
    // Export
    /////////////////////////////////////////////////////////////////////////////
@@ -444,7 +468,7 @@ public class Controller {
       return runTask( () -> {
          setPriority( Thread.MIN_PRIORITY );
          checkStop( "Loading data" );
-         dal.loadEntityContent( categories, state );
+         loadEntityContent();
 
          checkStop( "Writing catlog" );
          try ( Exporter exporter = new ExporterMain() ) {
@@ -471,14 +495,22 @@ public class Controller {
          exporter = new ExporterRawTsv();
       else if ( target.getName().toLowerCase().endsWith( ".json" ) )
          exporter = new ExporterRawJson();
-      else if ( target.getName().toLowerCase().endsWith( ".sql" ) )
-         exporter = new ExporterRawSql();
-      else if ( target.getName().toLowerCase().endsWith( ".xlsx" ) )
-         exporter = new ExporterRawXlsx();
-      else {
+      else if ( target.getName().toLowerCase().endsWith( ".sql" ) ) {
+         ExporterRawSql.Dialect dialect = askSqlDialect();
+         if ( dialect == null ) return;
+         ExporterRawSql sql = new ExporterRawSql();
+         sql.setDialect( dialect );
+         sql.setBulk( SQL_BULK );
+         exporter = sql;
+      } else if ( target.getName().toLowerCase().endsWith( ".xlsx" ) ) {
+         ExporterRawXlsx xlsx = new ExporterRawXlsx();
+         xlsx.setDeflateLevel( XLSX_DEFLATE_LEVEL );
+         exporter = xlsx;
+      } else {
          new Alert( Alert.AlertType.ERROR, "Unknown file type. Must be html, csv, tsv, json, or xlsx.", ButtonType.OK ).showAndWait();
          return;
       }
+      exporter.setSplit( RAW_SPLIT );
       exporter.setState( target, this::checkStop, state );
       gui.setTitle( "Dumping" );
       gui.setStatus( "Starting dump" );
@@ -487,7 +519,7 @@ public class Controller {
       runTask( () -> {
          setPriority( Thread.MIN_PRIORITY );
          checkStop( "Loading data" );
-         dal.loadEntityContent( categories, state );
+         loadEntityContent();
 
          try ( Exporter exp = exporter ) {
             checkStop( "Writing catlog" );
@@ -501,10 +533,40 @@ public class Controller {
       } ).whenComplete( terminate( "Dump", gui::stateCanExport ) );
    }
 
+   // Ask for database type of sql export.  Return null if cancelled.
+   private static ExporterRawSql.Dialect askSqlDialect () {
+      final List<ButtonType> buttons = new ArrayList<>();
+      for ( ExporterRawSql.Dialect dialect : ExporterRawSql.Dialect.values() )
+         buttons.add( new ButtonType( dialect.label ) );
+      buttons.add( ButtonType.CANCEL );
+      final ButtonType choice = new Alert( Alert.AlertType.CONFIRMATION, "Select database type:", buttons.toArray( new ButtonType[ buttons.size() ] ) ).showAndWait().orElse( ButtonType.CANCEL );
+      final int index = buttons.indexOf( choice );
+      return index < ExporterRawSql.Dialect.values().length ? ExporterRawSql.Dialect.values()[ index ] : null;
+   }
+
    /////////////////////////////////////////////////////////////////////////////
    // Shared / Utils
    /////////////////////////////////////////////////////////////////////////////
 
+   /**
+    * Load entry fields, and either load all content or set up on-demand loading.
+    */
+   private void loadEntityContent () throws Exception {
+      final int cacheMB = CONTENT_CACHE_MB;
+      if ( cacheMB > 0 ) {
+         log.log( Level.CONFIG, "Loading content on demand with {0} MB cache", cacheMB );
+         setContentCache( new ContentCache( dal, cacheMB ) );
+      } else
+         setContentCache( null );
+      DbAbstraction.await( dal.loadEntityContent( categories, state, cacheMB <= 0 ) );
+   }
+
+   private synchronized void setContentCache ( ContentCache cache ) {
+      if ( contentCache != null ) contentCache.clear();
+      contentCache = cache;
+      Entry.contentLoader = cache;
+   }
+
    private CompletableFuture<Void> runTask ( RunExcept task ) {
       final CompletableFuture<Void> result = new CompletableFuture<>();
       threadPool.execute( ()-> { try {
@@ -550,8 +612,6 @@ public class Controller {
       }
    }
 
-   private Instant lastLoad = Instant.now();
-
    /**
     * Call a task and wait for browser to finish loading... or timeout.
     * The task must cause the browser's loader to change state for this to work.
@@ -565,18 +625,15 @@ public class Controller {
 
       do {
          try {
-            if ( INTERVAL_MS > 0 ) {
-               lastLoad = lastLoad.plusMillis( INTERVAL_MS );
-               long sleep = Duration.between( lastLoad, Instant.now() ).toMillis();
-               if ( sleep < INTERVAL_MS ) Thread.sleep( INTERVAL_MS - sleep );
-            }
-            lastLoad = Instant.now();
+            pacer.acquire();
             Platform.runLater( browser.getConsoleOutput()::clear );
             checkStop( taskName );
             browser.handle( ( e ) -> future.complete( null ), // on load
                         ( e,err ) -> future.completeExceptionally( err ) ); // on error
+            final long start = System.currentTimeMillis();
             task.run();
             future.get( TIMEOUT_MS, TimeUnit.MILLISECONDS );
+            pacer.success( System.currentTimeMillis() - start );
             browser.handle( null, null );
             log.log(Level.FINE, "{0} finished normally.", taskName);
             break;
@@ -585,8 +642,9 @@ public class Controller {
             browser.handle( null, null );
             log.log( Level.WARNING, "{0} finished exceptionally: {1}", new Object[]{ taskName, err } );
 
+            if ( err instanceof TimeoutException ) pacer.timeout();
             if ( err instanceof TimeoutException && retry.incrementAndGet() <= RETRY_COUNT ) {
-               int sleep_sec = retry.get() > 3 ? 300 : new int[]{ 0, 10, 60, 120 }[ retry.get() ];
+               int sleep_sec = Pacer.retryDelay( retry.get() );
                checkStop( "Timeout, waiting " + sleep_sec + " seconds before retry" );
                try {
                   Thread.sleep( sleep_sec * 1000 );
@@ -606,21 +664,7 @@ public class Controller {
       try {
          Converter.stop.set( false );
          Exporter.stop.set( false );
-         List<CompletableFuture<Void>> tasks = new ArrayList<>( categories.size() );
-         for ( Category category : categories ) {
-            CompletableFuture<Void> future = new CompletableFuture<>();
-            tasks.add( future );
-            threadPool.execute( () -> { try {
-               synchronized ( exporter ) { /* sync with exporter.setState */ }
-               synchronized ( category ) {
-                  exporter.export( category );
-               }
-               future.complete( null );
-            } catch ( Exception e ) {
-               future.completeExceptionally( e );
-            } } );
-         }
-         CompletableFuture.allOf( tasks.toArray( new CompletableFuture[ tasks.size() ] ) ).get();
+         exportScheduler.export( categories, exporter, state );
       } catch ( Exception e ) {
          Converter.stop.set( true );
          Exporter.stop.set( true );
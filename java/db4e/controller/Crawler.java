@@ -87,7 +87,7 @@ public class Crawler {
    }
 
    void getCategoryXsl ( Category cat ) {
-      browse( "http://www.wizards.com/dndinsider/compendium/xsl/" + cat.id + ".xsl" );
+      browse( Controller.COMPENDIUM_URL + "xsl/" + cat.id + ".xsl" );
    }
 
    Document getCategoryXsl () throws InterruptedException, TimeoutException {
@@ -97,7 +97,7 @@ public class Crawler {
    }
 
    void getCategoryData ( Category cat ) {
-      browse( "http://www.wizards.com/dndinsider/compendium/CompendiumSearch.asmx/ViewAll?tab=" + cat.id );
+      browse( Controller.COMPENDIUM_URL + "CompendiumSearch.asmx/ViewAll?tab=" + cat.id );
    }
 
    List<Entry> openCategory () throws InterruptedException, TimeoutException {
@@ -133,7 +133,7 @@ public class Crawler {
    }
 
    private void openEntry ( String url ) {
-      browse( "http://www.wizards.com/dndinsider/compendium/" + url );
+      browse( Controller.COMPENDIUM_URL + url );
    }
 
    void getEntry ( Entry entry ) throws InterruptedException, TimeoutException {
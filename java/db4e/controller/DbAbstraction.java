@@ -3,34 +3,174 @@ package db4e.controller;
 import db4e.Main;
 import db4e.data.Category;
 import db4e.data.Entry;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import javafx.collections.ObservableList;
+import org.tmatesoft.sqljet.core.SqlJetErrorCode;
 import org.tmatesoft.sqljet.core.SqlJetException;
 import org.tmatesoft.sqljet.core.SqlJetTransactionMode;
+import org.tmatesoft.sqljet.core.SqlJetValueType;
 import org.tmatesoft.sqljet.core.table.ISqlJetCursor;
 import org.tmatesoft.sqljet.core.table.ISqlJetTable;
 import org.tmatesoft.sqljet.core.table.SqlJetDb;
-import sheepy.util.JavaFX;
+import org.tmatesoft.sqljet.core.table.SqlJetTimeoutBusyHandler;
+import sheepy.util.CsvCodec;
 
 /**
  * Database abstraction.
- * Note that SqlJet does not support multi-thread.
+ * SqlJet does not support multi-thread, so the connection is confined to a single database thread.
+ * Commands run on that thread in submission order, and return futures.
  */
 class DbAbstraction {
 
    private static final Logger log = Main.log;
 
-   private volatile SqlJetDb db;
+   // Database version that stores fields as binary blob instead of csv.
+   static final int VERSION = 20261018;
 
-   void setDb ( SqlJetDb db, ObservableList<Category> categories, ProgressState state ) throws SqlJetException {
+   private static final int BUSY_TIMEOUT_MS = 60_000; // How long to wait for another process, such as a headless export, to release the file.
+
+   private final ScheduledThreadPoolExecutor thread = new ScheduledThreadPoolExecutor( 1, ( task ) -> daemon( task, "Database" ) );
+   private SqlJetDb db; // Used by database thread only
+
+   {
+      thread.setExecuteExistingDelayedTasksAfterShutdownPolicy( false ); // close() saves the queue itself
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Commands
+   /////////////////////////////////////////////////////////////////////////////
+
+   /**
+    * Take over an opened database, check and convert its version, then load categories and entry list.
+    * @param listUpdater Runs the update of category list, e.g. on the GUI thread if the list is bound to GUI.
+    */
+   CompletableFuture<Void> setDb ( SqlJetDb db, List<Category> categories, ProgressState state, Executor listUpdater ) {
+      return submit( () -> { doSetDb( db, categories, state, listUpdater ); return null; } );
+   }
+
+   CompletableFuture<Void> createTables () {
+      return submit( () -> { doCreateTables(); return null; } );
+   }
+
+   /**
+    * Load fields and content of all entries.  Caller should hold categories until done.
+    * @param withContent If false, load fields only and leave content to be loaded on demand.
+    */
+   CompletableFuture<Void> loadEntityContent ( List<Category> categories, ProgressState state, boolean withContent ) {
+      return submit( () -> { doLoadEntityContent( categories, state, withContent ); return null; } );
+   }
+
+   /**
+    * Load content of a single entry in its own transaction.  Used by on-demand loading.
+    */
+   CompletableFuture<String> loadEntityContent ( String id ) {
+      return submit( () -> doLoadEntityContent( id ) );
+   }
+
+   CompletableFuture<Void> saveEntryList ( Category category, List<Entry> entries ) {
+      return submit( () -> { doSaveEntryList( category, entries ); return null; } );
+   }
+
+   /**
+    * Queue a downloaded entry for saving.  The queue is saved in one transaction
+    * when it reaches Controller.SAVE_BATCH entries or Controller.SAVE_BATCH_MS age,
+    * by a timer if no more entry arrives in time.
+    * Entry and category are marked as downloaded only after the batch is committed.
+    * If the save fails, entries stay in queue and are retried.
+    *
+    * @return Number of entries saved since last returned count, usually 0.
+    */
+   CompletableFuture<Integer> saveEntry ( Category category, Entry entry ) {
+      return submit( () -> report( doSaveEntry( category, entry ) ) );
+   }
+
+   /**
+    * Save all queued entries.  Must be called when download stops for any reason.
+    * @return Number of entries saved since last returned count.
+    */
+   CompletableFuture<Integer> flushEntries () {
+      return submit( () -> report( doFlushEntries() ) );
+   }
+
+   /**
+    * Save queued entries and close the connection.  No command is accepted afterwards.
+    */
+   CompletableFuture<Void> close () {
+      final CompletableFuture<Void> result = submit( () -> {
+         try {
+            doFlushEntries();
+         } finally {
+            if ( db != null ) db.close();
+            db = null;
+         }
+         return null;
+      } );
+      thread.shutdown();
+      return result;
+   }
+
+   /**
+    * Wait for a command and rethrow its error.
+    */
+   static <T> T await ( CompletableFuture<T> command ) throws SqlJetException {
+      try {
+         return command.get();
+      } catch ( InterruptedException ex ) {
+         throw new RuntimeException( ex );
+      } catch ( ExecutionException ex ) {
+         final Throwable cause = ex.getCause();
+         if ( cause instanceof SqlJetException ) throw (SqlJetException) cause;
+         if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+         if ( cause instanceof Error ) throw (Error) cause;
+         throw new RuntimeException( cause );
+      }
+   }
+
+   @FunctionalInterface private interface Command<T> {
+      T run () throws Exception;
+   }
+
+   private <T> CompletableFuture<T> submit ( Command<T> command ) {
+      final CompletableFuture<T> result = new CompletableFuture<>();
+      try {
+         thread.execute( () -> { try {
+            result.complete( command.run() );
+         } catch ( Throwable ex ) {
+            result.completeExceptionally( ex );
+         } } );
+      } catch ( RejectedExecutionException ex ) {
+         result.completeExceptionally( new IllegalStateException( "Database is closed", ex ) );
+      }
+      return result;
+   }
+
+   private static Thread daemon ( Runnable task, String name ) {
+      final Thread thread = new Thread( task, name );
+      thread.setDaemon( true );
+      return thread;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Implementations
+   /////////////////////////////////////////////////////////////////////////////
+
+   private void doSetDb ( SqlJetDb db, List<Category> categories, ProgressState state, Executor listUpdater ) throws SqlJetException {
       this.db = db;
+      db.setBusyHandler( new SqlJetTimeoutBusyHandler( BUSY_TIMEOUT_MS ) );
       ISqlJetTable tblConfig = db.getTable( "config" );
 
       // Check version
@@ -49,11 +189,12 @@ class DbAbstraction {
       }
       log.log( Level.CONFIG, "Database version {0,number,#}, opened.", version );
 
-      loadCategory( categories );
+      if ( version < VERSION ) migrateFields( state );
+      loadCategory( categories, listUpdater );
       loadEntryIndex( categories, state );
    }
 
-   void createTables () throws SqlJetException {
+   private void doCreateTables () throws SqlJetException {
       db.beginTransaction( SqlJetTransactionMode.WRITE );
       try {
          db.createTable( "CREATE TABLE 'config' ('key' TEXT PRIMARY KEY NOT NULL, 'value' TEXT NOT NULL);" );
@@ -62,7 +203,7 @@ class DbAbstraction {
             " 'id' TEXT PRIMARY KEY NOT NULL,"+
             " 'name' TEXT NOT NULL,"+
             " 'count' INTEGER NOT NULL,"+
-            " 'fields' TEXT NOT NULL,"+
+            " 'fields' BLOB NOT NULL,"+
             " 'type' TEXT NOT NULL,"+
             " 'order' INTEGER NOT NULL);" );
          db.createIndex( "CREATE INDEX category_order_index ON category(order)" );
@@ -71,7 +212,7 @@ class DbAbstraction {
                  + " 'id' TEXT PRIMARY KEY NOT NULL,"
                  + " 'name' TEXT NOT NULL,"
                  + " 'category' TEXT NOT NULL,"
-                 + " 'fields' TEXT NOT NULL,"
+                 + " 'fields' BLOB NOT NULL,"
                  + " 'hasData' TINYINT NOT NULL,"
                  + " 'data' TEXT);" );
          db.createIndex( "CREATE INDEX entry_category_index ON entry(category, hasData)" );
@@ -79,27 +220,27 @@ class DbAbstraction {
          ISqlJetTable tblConfig = db.getTable( "config" );
          ISqlJetTable tblCategory = db.getTable( "category" );
 
-         tblConfig.insert( "version", "20160718" );
-
-         tblCategory.insert( "Race", "Race", 0, "DescriptionAttribute,Size,SourceBook", "PC", 100 );
-         tblCategory.insert( "Background", "Background", 0, "Type,Campaign,Skills,SourceBook", "PC", 200 );
-         tblCategory.insert( "Theme", "Theme", 0, "SourceBook", "PC", 300 );
-         tblCategory.insert( "Class", "Class", 0, "RoleName,PowerSourceText,KeyAbilities,SourceBook", "PC", 400 );
-         tblCategory.insert( "ParagonPath", "Paragon Path", 0, "Prerequisite,SourceBook", "PC", 500 );
-         tblCategory.insert( "EpicDestiny", "Epic Destiny", 0, "Prerequisite,SourceBook", "PC", 600 );
-         tblCategory.insert( "Feat", "Feat", 0, "TierName,SourceBook", "PC", 700 );
-         tblCategory.insert( "Power", "Power", 0, "ClassName,Level,ActionType,SourceBook", "PC", 800 );
-         tblCategory.insert( "Ritual", "Ritual", 0, "Level,ComponentCost,Price,KeySkillDescription,SourceBook", "PC", 900 );
-         tblCategory.insert( "Companion", "Companion", 0, "Type,SourceBook", "PC", 1000 );
-         tblCategory.insert( "Item", "Item", 0, "Category,Level,Cost,Rarity,SourceBook", "PC", 1100 );
-
-         tblCategory.insert( "Monster", "Monster", 0, "Level,CombatRole,GroupRole,SourceBook", "DM", 1200 );
-         tblCategory.insert( "Trap", "Trap", 0, "Type,GroupRole,Level,SourceBook", "DM", 1300 );
-         tblCategory.insert( "Terrain", "Terrain", 0, "Type,SourceBook", "DM", 1400 );
-         tblCategory.insert( "Poison", "Poison", 0, "Level,Cost,SourceBook", "DM", 1500 );
-         tblCategory.insert( "Disease", "Disease", 0, "Level,SourceBook", "DM", 1600 );
-         tblCategory.insert( "Deity", "Deity", 0, "Alignment,SourceBook", "DM", 1700 );
-         tblCategory.insert( "Glossary", "Glossary", 0, "Category,Type,SourceBook", "DM", 1800 );
+         tblConfig.insert( "version", String.valueOf( VERSION ) );
+
+         tblCategory.insert( "Race", "Race", 0, fields( "DescriptionAttribute,Size,SourceBook" ), "PC", 100 );
+         tblCategory.insert( "Background", "Background", 0, fields( "Type,Campaign,Skills,SourceBook" ), "PC", 200 );
+         tblCategory.insert( "Theme", "Theme", 0, fields( "SourceBook" ), "PC", 300 );
+         tblCategory.insert( "Class", "Class", 0, fields( "RoleName,PowerSourceText,KeyAbilities,SourceBook" ), "PC", 400 );
+         tblCategory.insert( "ParagonPath", "Paragon Path", 0, fields( "Prerequisite,SourceBook" ), "PC", 500 );
+         tblCategory.insert( "EpicDestiny", "Epic Destiny", 0, fields( "Prerequisite,SourceBook" ), "PC", 600 );
+         tblCategory.insert( "Feat", "Feat", 0, fields( "TierName,SourceBook" ), "PC", 700 );
+         tblCategory.insert( "Power", "Power", 0, fields( "ClassName,Level,ActionType,SourceBook" ), "PC", 800 );
+         tblCategory.insert( "Ritual", "Ritual", 0, fields( "Level,ComponentCost,Price,KeySkillDescription,SourceBook" ), "PC", 900 );
+         tblCategory.insert( "Companion", "Companion", 0, fields( "Type,SourceBook" ), "PC", 1000 );
+         tblCategory.insert( "Item", "Item", 0, fields( "Category,Level,Cost,Rarity,SourceBook" ), "PC", 1100 );
+
+         tblCategory.insert( "Monster", "Monster", 0, fields( "Level,CombatRole,GroupRole,SourceBook" ), "DM", 1200 );
+         tblCategory.insert( "Trap", "Trap", 0, fields( "Type,GroupRole,Level,SourceBook" ), "DM", 1300 );
+         tblCategory.insert( "Terrain", "Terrain", 0, fields( "Type,SourceBook" ), "DM", 1400 );
+         tblCategory.insert( "Poison", "Poison", 0, fields( "Level,Cost,SourceBook" ), "DM", 1500 );
+         tblCategory.insert( "Disease", "Disease", 0, fields( "Level,SourceBook" ), "DM", 1600 );
+         tblCategory.insert( "Deity", "Deity", 0, fields( "Alignment,SourceBook" ), "DM", 1700 );
+         tblCategory.insert( "Glossary", "Glossary", 0, fields( "Category,Type,SourceBook" ), "DM", 1800 );
 
          db.commit();
       } finally {
@@ -107,7 +248,45 @@ class DbAbstraction {
       }
    }
 
-   private void loadCategory ( ObservableList<Category> categories ) throws SqlJetException {
+   /**
+    * Convert csv fields of an older database to binary, then update version.
+    * A read only database is left as is; both formats can be read.
+    */
+   private void migrateFields ( ProgressState state ) throws SqlJetException {
+      try {
+         db.beginTransaction( SqlJetTransactionMode.WRITE );
+      } catch ( SqlJetException ex ) {
+         if ( ex.getErrorCode() != SqlJetErrorCode.READONLY ) throw ex;
+         log.log( Level.INFO, "Database is read only. Fields are not converted." );
+         return;
+      }
+      try {
+         log.log( Level.INFO, "Converting database to version {0,number,#}", VERSION );
+         final Map<String, Object> update = new HashMap<>( 2, 1f );
+         for ( String table : new String[]{ "category", "entry" } ) {
+            ISqlJetCursor cursor = db.getTable( table ).open();
+            state.reset();
+            state.total = (int) cursor.getRowCount();
+            if ( ! cursor.eof() ) do {
+               if ( cursor.getFieldType( "fields" ) != SqlJetValueType.BLOB ) {
+                  update.put( "fields", FieldCodec.encode( parseCsvLine( cursor.getString( "fields" ) ) ) );
+                  cursor.updateByFieldNames( update );
+               }
+               state.addOne();
+            } while ( cursor.next() );
+            cursor.close();
+         }
+         ISqlJetCursor cursor = db.getTable( "config" ).lookup( null, "version" );
+         cursor.update( "version", String.valueOf( VERSION ) );
+         cursor.close();
+         db.commit();
+         log.log( Level.FINE, "Converted {0} entries.", state.total );
+      } finally {
+         db.rollback();
+      }
+   }
+
+   private void loadCategory ( List<Category> categories, Executor listUpdater ) throws SqlJetException {
       log.fine( "Loading categories." );
       List<Category> list = new ArrayList<>();
 
@@ -120,7 +299,7 @@ class DbAbstraction {
                Category category = new Category(
                   cursor.getString( "id" ),
                   cursor.getString( "name" ),
-                  parseCsvLine( cursor.getString( "fields" ) ) );
+                  loadFields( cursor ) );
                category.total_entry.set( (int) cursor.getInteger( "count" ) );
                list.add( category );
             } while ( cursor.next() );
@@ -128,7 +307,7 @@ class DbAbstraction {
             throw new UnsupportedOperationException( "dnd4e database does not contains category." );
          }
          cursor.close();
-         JavaFX.runNow( () -> { synchronized ( list ) {
+         listUpdater.execute( () -> { synchronized ( list ) {
             categories.clear();
             categories.addAll( list );
          } } );
@@ -182,30 +361,89 @@ class DbAbstraction {
       state.set( downCount );
    }
 
-   void loadEntityContent ( List<Category> categories, ProgressState state ) throws SqlJetException {
+   private void doLoadEntityContent ( List<Category> categories, ProgressState state, boolean withContent ) throws SqlJetException {
       db.beginTransaction( SqlJetTransactionMode.READ_ONLY );
-      try { synchronized ( categories ) {
+      try { // Caller owns categories and waits for the result
+
          state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
          ISqlJetTable tblEntry = db.getTable( "entry" );
+         Map<String, Entry> pending = new HashMap<>( state.total, 1f );
+         Map<Entry, byte[]> compressed = new HashMap<>();
          for ( Category category : categories ) synchronized( category ) {
-            log.log( Level.FINE, "Loading {0} content", category.id );
             for ( Entry entry : category.entries ) {
-               if ( entry.fields == null || entry.content == null ) {
-                  ISqlJetCursor cursor = tblEntry.lookup( null, entry.id );
-                  if ( cursor.eof() ) throw new IllegalStateException( "'" + entry.name + "' not in database" );
-                  if ( entry.fields  == null ) entry.fields  = parseCsvLine( cursor.getString( "fields" ) );
-                  if ( entry.content == null ) entry.content = cursor.getString( "data" );
-                  cursor.close();
-               }
-               state.addOne();
+               if ( entry.fields == null || ( withContent && entry.content == null ) || ( entry.contentDownloaded && entry.contentDigest == null ) )
+                  pending.put( entry.id, entry );
+               else
+                  state.addOne();
             }
          }
-      } } finally {
+
+         // Bulk load: one sequential scan is much cheaper than a b-tree descent per entry.
+         if ( pending.size() > state.total / 4 ) {
+            log.log( Level.FINE, "Loading {0} content by table scan", pending.size() );
+            ISqlJetCursor cursor = tblEntry.open();
+            if ( ! cursor.eof() ) do {
+               Entry entry = pending.remove( cursor.getString( "id" ) );
+               if ( entry != null ) {
+                  loadEntityContent( entry, cursor, withContent, compressed );
+                  state.addOne();
+               }
+            } while ( ! pending.isEmpty() && cursor.next() );
+            cursor.close();
+         }
+
+         // Lookup the rest, usually a few entries or entries not in database.
+         log.log( Level.FINE, "Loading {0} content by lookup", pending.size() );
+         for ( Entry entry : pending.values() ) {
+            ISqlJetCursor cursor = tblEntry.lookup( null, entry.id );
+            if ( cursor.eof() ) throw new IllegalStateException( "'" + entry.name + "' not in database" );
+            loadEntityContent( entry, cursor, withContent, compressed );
+            cursor.close();
+            state.addOne();
+         }
+
+         // Decompress outside the single threaded db cursor.
+         if ( ! compressed.isEmpty() ) {
+            log.log( Level.FINE, "Decompressing {0} content", compressed.size() );
+            compressed.entrySet().parallelStream().forEach( e -> e.getKey().content = ContentCodec.decompress( e.getValue() ) );
+         }
+      } finally {
+         db.commit();
+      }
+   }
+
+   private void loadEntityContent ( Entry entry, ISqlJetCursor cursor, boolean withContent, Map<Entry, byte[]> compressed ) throws SqlJetException {
+      if ( entry.fields  == null ) entry.fields  = loadFields( cursor );
+      final boolean loadContent = withContent && entry.content == null;
+      if ( loadContent || entry.contentDigest == null ) {
+         if ( cursor.getFieldType( "data" ) == SqlJetValueType.BLOB ) {
+            final byte[] data = cursor.getBlobAsArray( "data" );
+            entry.contentDigest = digest( data );
+            if ( loadContent ) compressed.put( entry, data );
+         } else {
+            final String data = cursor.getString( "data" );
+            entry.contentDigest = digest( data );
+            if ( loadContent ) entry.content = data;
+         }
+      }
+   }
+
+   private String doLoadEntityContent ( String id ) throws SqlJetException {
+      db.beginTransaction( SqlJetTransactionMode.READ_ONLY );
+      try {
+         ISqlJetCursor cursor = db.getTable( "entry" ).lookup( null, id );
+         try {
+            if ( cursor.eof() ) throw new IllegalStateException( "'" + id + "' not in database" );
+            return loadContent( cursor );
+         } finally {
+            cursor.close();
+         }
+      } finally {
          db.commit();
       }
    }
 
-   void saveEntryList ( Category category, List<Entry> entries ) throws SqlJetException {
+   private void doSaveEntryList ( Category category, List<Entry> entries ) throws SqlJetException {
       int count = entries.size();
       db.beginTransaction( SqlJetTransactionMode.WRITE );
       try {
@@ -216,7 +454,7 @@ class DbAbstraction {
             log.log( Level.FINER, "Saving {0} - {1}", new Object[]{ entry.id, entry.name } );
             ISqlJetCursor lookup = tblEntry.lookup( null, entry.id );
             // Table fields: id, name, category, fields, hasData, data
-            String fields = buildCsvLine( entry.fields ).toString();
+            byte[] fields = FieldCodec.encode( entry.fields );
             if ( lookup.eof() ) {
                tblEntry.insert( entry.id, entry.name, category.id, fields, 0, null );
 //            } else { // Shouldn't need to update.
@@ -244,63 +482,138 @@ class DbAbstraction {
 
    private Map<String, Object> entryUpdateMap;
 
-   void saveEntry ( Entry entry ) throws SqlJetException {
-      if ( entryUpdateMap == null ) {
-         entryUpdateMap = new HashMap<>( 2, 1f );
-         entryUpdateMap.put( "hasData", 1 );
+   // Write behind queue of downloaded entries and their categories.
+   private final List<Entry> saveQueue = new ArrayList<>();
+   private final List<Category> saveQueueOwner = new ArrayList<>();
+   private long saveQueueSince;
+   private ScheduledFuture<?> saveTimer;
+   private int unreported; // Entries saved by timer, to be returned by next command
+
+   private int doSaveEntry ( Category category, Entry entry ) throws SqlJetException {
+      if ( saveQueue.isEmpty() ) saveQueueSince = System.currentTimeMillis();
+      else if ( saveQueue.contains( entry ) ) return 0; // Downloaded again after a failed save
+      saveQueue.add( entry );
+      saveQueueOwner.add( category );
+      if ( saveQueue.size() >= Controller.SAVE_BATCH || System.currentTimeMillis() - saveQueueSince >= Controller.SAVE_BATCH_MS )
+         return doFlushEntries();
+      if ( saveTimer == null ) scheduleFlush( Controller.SAVE_BATCH_MS );
+      return 0;
+   }
+
+   // Save queued entries in one transaction.  If the save fails, entries stay in queue, and a retry is scheduled.
+   private int doFlushEntries () throws SqlJetException {
+      final int count = saveQueue.size();
+      if ( count <= 0 ) return 0;
+      try {
+         if ( entryUpdateMap == null ) {
+            entryUpdateMap = new HashMap<>( 2, 1f );
+            entryUpdateMap.put( "hasData", 1 );
+         }
+         log.log( Level.FINE, "Saving {0} entries", count );
+         db.beginTransaction( SqlJetTransactionMode.WRITE );
+         try {
+            ISqlJetTable tblEntry = db.getTable( "entry" );
+            for ( Entry entry : saveQueue ) {
+               ISqlJetCursor cursor = tblEntry.lookup( null, entry.id );
+               if ( cursor.eof() ) throw new IllegalStateException( "'" + entry.name + "' not in database" );
+               final Object data = Controller.COMPRESS_CONTENT ? ContentCodec.compress( entry.content ) : entry.content;
+               entryUpdateMap.put( "data", data );
+               cursor.updateByFieldNames( entryUpdateMap );
+               entry.contentDigest = digest( data );
+               cursor.close();
+            }
+            db.commit();
+         } finally {
+            db.rollback();
+         }
+      } catch ( SqlJetException | RuntimeException ex ) {
+         if ( saveTimer == null ) scheduleFlush( Math.max( 1000, Controller.SAVE_BATCH_MS ) );
+         throw ex;
+      }
+      for ( int i = 0 ; i < count ; i++ ) {
+         saveQueue.get( i ).contentDownloaded = true;
+         final Category category = saveQueueOwner.get( i );
+         category.downloaded_entry.set( category.downloaded_entry.get() + 1 );
+      }
+      saveQueue.clear();
+      saveQueueOwner.clear();
+      return count;
+   }
+
+   // Timer task on database thread.  Save the queue if it is due, otherwise wait until it is.
+   private void doFlushDue () {
+      saveTimer = null;
+      if ( saveQueue.isEmpty() || db == null ) return;
+      final long wait = saveQueueSince + Controller.SAVE_BATCH_MS - System.currentTimeMillis();
+      if ( wait > 0 ) {
+         scheduleFlush( wait );
+         return;
       }
-      db.beginTransaction( SqlJetTransactionMode.WRITE );
       try {
-         ISqlJetTable tblEntry = db.getTable( "entry" );
-         ISqlJetCursor cursor = tblEntry.lookup( null, entry.id );
-         if ( cursor.eof() ) throw new IllegalStateException( "'" + entry.name + "' not in database" );
-         entryUpdateMap.put( "data", entry.content );
-         cursor.updateByFieldNames( entryUpdateMap );
-         db.commit();
-         entry.contentDownloaded = true;
+         unreported += doFlushEntries();
+      } catch ( SqlJetException | RuntimeException ex ) {
+         log.log( Level.WARNING, "Cannot save {0} downloaded entries, will retry: {1}", new Object[]{ saveQueue.size(), ex } );
+      }
+   }
 
-      } finally {
-         db.rollback();
+   private void scheduleFlush ( long delayMs ) {
+      try {
+         saveTimer = thread.schedule( this::doFlushDue, delayMs, TimeUnit.MILLISECONDS );
+      } catch ( RejectedExecutionException ex ) {
+         // Closing; close() saves the queue
       }
    }
 
+   private int report ( int saved ) {
+      saved += unreported;
+      unreported = 0;
+      return saved;
+   }
+
    /////////////////////////////////////////////////////////////////////////////
    // Utils
    /////////////////////////////////////////////////////////////////////////////
 
-   private final String csvTokenPattern = "(?<=^|,)([^\"\\r\\n,]*|\"(?:\"\"|[^\"])*\")(?:,|$)";
-   private final Matcher csvToken = Pattern.compile( csvTokenPattern ).matcher( "" );
-   private final List<String> csvBuffer = new ArrayList<>();
-
-   private synchronized String[] parseCsvLine ( CharSequence line ) {
-      csvToken.reset( line );
-      csvBuffer.clear();
-      int pos = 0;
-      while ( csvToken.find() ) {
-         if ( csvToken.start() != pos )
-            log.log( Level.WARNING, "CSV parse error: {0}", line );
-         String token = csvToken.group( 1 );
-         if ( token.length() >= 2 && token.charAt(0) == '"' && token.endsWith( "\"" ) )
-            token = token.substring( 1, token.length()-1 ).replaceAll( "\"\"", "\"" );
-         csvBuffer.add(token);
-         pos = csvToken.end();
+   /**
+    * SHA-256 of a data column value as stored, text in UTF-8 or blob.  Null value gives null.
+    */
+   private static byte[] digest ( Object data ) {
+      if ( data == null ) return null;
+      try {
+         return MessageDigest.getInstance( "SHA-256" ).digest( data instanceof byte[] ? (byte[]) data : data.toString().getBytes( UTF_8 ) );
+      } catch ( NoSuchAlgorithmException ex ) {
+         throw new IllegalStateException( ex ); // Every Java platform must support SHA-256
       }
-      if ( pos != line.length() )
-         log.log( Level.WARNING, "CSV parse error: {0}", line );
-      return csvBuffer.toArray( new String[ csvBuffer.size() ] );
    }
 
-   private final Matcher csvQuotable = Pattern.compile( "[\r\n,\"]" ).matcher( "" );
+   private static byte[] fields ( String csv ) {
+      return FieldCodec.encode( csv.split( "," ) );
+   }
+
+   /**
+    * Read the fields column, which is csv text in databases before VERSION.
+    */
+   private String[] loadFields ( ISqlJetCursor cursor ) throws SqlJetException {
+      if ( cursor.getFieldType( "fields" ) == SqlJetValueType.BLOB )
+         return FieldCodec.decode( cursor.getBlobAsArray( "fields" ) );
+      return parseCsvLine( cursor.getString( "fields" ) );
+   }
+
+   /**
+    * Read the data column, which is text or compressed blob.
+    */
+   private String loadContent ( ISqlJetCursor cursor ) throws SqlJetException {
+      if ( cursor.getFieldType( "data" ) == SqlJetValueType.BLOB )
+         return ContentCodec.decompress( cursor.getBlobAsArray( "data" ) );
+      return cursor.getString( "data" );
+   }
 
-   private synchronized StringBuilder buildCsvLine ( String[] line ) {
-      StringBuilder result = new StringBuilder(32);
-      for ( String token : line ) {
-         if ( csvQuotable.reset( token ).find() )
-            result.append( '"' ).append( token.replaceAll( "\"", "\"\"" ) ).append( "\"," );
-         else
-            result.append( token ).append( ',' );
+   private String[] parseCsvLine ( CharSequence line ) {
+      try {
+         return CsvCodec.parse( line );
+      } catch ( IllegalArgumentException ex ) {
+         log.log( Level.WARNING, "CSV parse error: {0}", line );
+         return line.toString().split( ",", -1 );
       }
-      result.setLength( result.length() - 1 );
-      return result;
    }
 }
\ No newline at end of file
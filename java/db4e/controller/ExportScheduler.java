@@ -0,0 +1,80 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.converter.Convert;
+import db4e.data.Category;
+import db4e.exporter.Exporter;
+import db4e.exporter.ExporterMain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Run export tasks on a work-stealing pool.
+ * Categories are started largest first, and in main export large categories are converted in entry ranges,
+ * so that wall time is no longer bound by the biggest category.
+ * Range size is Controller.CONVERT_CHUNK, or sized by total entries and pool parallelism if it is negative.
+ * Raw exporters write each category as one ordered stream, so they are scheduled per category.
+ */
+class ExportScheduler {
+
+   private static final Logger log = Main.log;
+
+   private static final int MIN_RANGE = 500; // Smallest auto range, so that helper converter setup stays small
+
+   private final ForkJoinPool pool;
+
+   ExportScheduler ( int parallelism ) {
+      pool = new ForkJoinPool( parallelism );
+   }
+
+   void export ( List<Category> categories, Exporter exporter, ProgressState state ) throws Exception {
+      List<Category> order = new ArrayList<>( categories );
+      order.sort( ( a, b ) -> b.getExportCount() - a.getExportCount() );
+      if ( exporter instanceof ExporterMain )
+         ( (ExporterMain) exporter ).setParallel( pool, rangeSize( categories ) );
+
+      List<ForkJoinTask<?>> tasks = new ArrayList<>( order.size() );
+      for ( Category category : order )
+         tasks.add( pool.submit( () -> {
+            synchronized ( exporter ) { /* sync with exporter.setState */ }
+            long start = System.nanoTime();
+            synchronized ( category ) {
+               exporter.export( category );
+            }
+            state.addTiming( category.id, System.nanoTime() - start );
+            return null;
+         } ) );
+      Exception error = null;
+      for ( ForkJoinTask<?> task : tasks ) try { // Wait for all, so that no task is still writing when this returns
+         task.get();
+      } catch ( Exception ex ) {
+         if ( error != null ) continue;
+         error = ex;
+         Convert.stop.set( true ); // Stop running tasks, and cancel those not yet started
+         Exporter.stop.set( true );
+         for ( ForkJoinTask<?> other : tasks ) other.cancel( false );
+      }
+      if ( error != null ) throw error;
+
+      log.log( Level.FINE, "Export task timings (ms):\n{0}", state.getTimings().entrySet().stream()
+         .sorted( ( a, b ) -> Long.compare( b.getValue(), a.getValue() ) )
+         .map( e -> e.getKey() + " = " + TimeUnit.NANOSECONDS.toMillis( e.getValue() ) ).collect( Collectors.joining( "\n" ) ) );
+   }
+
+   // Entries per conversion range.  0 = Do not split.
+   private int rangeSize ( List<Category> categories ) {
+      if ( Controller.CONVERT_CHUNK >= 0 ) return Controller.CONVERT_CHUNK;
+      final int total = categories.stream().mapToInt( Category::getExportCount ).sum();
+      return Math.max( MIN_RANGE, total / ( pool.getParallelism() * 4 ) );
+   }
+
+   void shutdown () {
+      pool.shutdown();
+   }
+}
@@ -0,0 +1,32 @@
+package db4e.controller;
+
+import db4e.data.Entry;
+
+/**
+ * An independent connection to the compendium that downloads entry pages.
+ * Each session is used by one thread at a time.
+ */
+interface FetchSession extends AutoCloseable {
+
+   /**
+    * Download the page of an entry.
+    *
+    * @return Extractor that sets entry.content from the downloaded page.  Run on the extract stage, not by this session.
+    * @throws javax.security.auth.login.LoginException If the session is not logged in.
+    * @throws java.util.concurrent.TimeoutException If the server does not respond in time.
+    */
+   Extractor fetch ( Entry entry ) throws Exception;
+
+   @Override void close ();
+
+   /**
+    * Extract and validate entry content from a downloaded page.
+    */
+   interface Extractor {
+      /**
+       * @throws javax.security.auth.login.LoginException If the page is a login page.
+       * @throws IllegalStateException If the page is incomplete.
+       */
+      void extract ( Entry entry ) throws Exception;
+   }
+}
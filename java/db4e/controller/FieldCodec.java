@@ -0,0 +1,90 @@
+package db4e.controller;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary encoding of entry and category fields, stored as blob.
+ *
+ * Format: field count, then each field as byte length and UTF-8 bytes.
+ * Counts and lengths are unsigned varints, seven bits per byte, low bits first.
+ * Decoding needs no tokenising; each field is one String constructor.
+ *
+ * Stateless and thread safe.
+ */
+final class FieldCodec {
+
+   private FieldCodec () {}
+
+   static byte[] encode ( String[] fields ) {
+      final byte[][] utf8 = new byte[ fields.length ][];
+      int size = varintSize( fields.length );
+      for ( int i = 0 ; i < fields.length ; i++ ) {
+         utf8[ i ] = fields[ i ].getBytes( UTF_8 );
+         size += varintSize( utf8[ i ].length ) + utf8[ i ].length;
+      }
+      final byte[] result = new byte[ size ];
+      int pos = writeVarint( result, 0, fields.length );
+      for ( byte[] field : utf8 ) {
+         pos = writeVarint( result, pos, field.length );
+         System.arraycopy( field, 0, result, pos, field.length );
+         pos += field.length;
+      }
+      return result;
+   }
+
+   /**
+    * @throws IllegalArgumentException If the data is truncated or malformed.
+    */
+   static String[] decode ( byte[] data ) {
+      try {
+         final long head = readVarint( data, 0 );
+         int pos = (int) ( head >>> 32 );
+         final int count = (int) head;
+         if ( count > data.length ) throw new IllegalArgumentException( "Invalid field count " + count );
+         final String[] result = new String[ count ];
+         for ( int i = 0 ; i < count ; i++ ) {
+            final long len = readVarint( data, pos );
+            pos = (int) ( len >>> 32 );
+            final int size = (int) len;
+            if ( size > data.length - pos ) throw new IllegalArgumentException( "Field data truncated" );
+            result[ i ] = new String( data, pos, size, UTF_8 );
+            pos += size;
+         }
+         if ( pos != data.length ) throw new IllegalArgumentException( "Trailing field data" );
+         return result;
+      } catch ( ArrayIndexOutOfBoundsException ex ) {
+         throw new IllegalArgumentException( "Field data truncated", ex );
+      }
+   }
+
+   private static int varintSize ( int value ) {
+      int size = 1;
+      while ( ( value >>>= 7 ) != 0 ) ++size;
+      return size;
+   }
+
+   private static int writeVarint ( byte[] buf, int pos, int value ) {
+      while ( ( value & ~0x7F ) != 0 ) {
+         buf[ pos++ ] = (byte) ( ( value & 0x7F ) | 0x80 );
+         value >>>= 7;
+      }
+      buf[ pos++ ] = (byte) value;
+      return pos;
+   }
+
+   /**
+    * @return Position after the varint in high 32 bits, value in low 32 bits.
+    */
+   private static long readVarint ( byte[] buf, int pos ) {
+      int value = 0;
+      for ( int shift = 0 ; shift < 32 ; shift += 7 ) {
+         final byte b = buf[ pos++ ];
+         value |= ( b & 0x7F ) << shift;
+         if ( b >= 0 ) {
+            if ( value < 0 ) break;
+            return ( (long) pos << 32 ) | value;
+         }
+      }
+      throw new IllegalArgumentException( "Invalid varint in field data" );
+   }
+}
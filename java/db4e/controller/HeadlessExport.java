@@ -0,0 +1,236 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.converter.Convert;
+import db4e.data.Category;
+import db4e.data.Entry;
+import db4e.exporter.Exporter;
+import db4e.exporter.ExporterMain;
+import db4e.exporter.ExporterRawCsv;
+import db4e.exporter.ExporterRawHtml;
+import db4e.exporter.ExporterRawJson;
+import db4e.exporter.ExporterRawSql;
+import db4e.exporter.ExporterRawTsv;
+import db4e.exporter.ExporterRawXlsx;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.tmatesoft.sqljet.core.table.SqlJetDb;
+import sheepy.util.Utils;
+
+/**
+ * Export from command line, without GUI.
+ * Run from Main when the first argument is an option.
+ */
+public class HeadlessExport {
+
+   private static final Logger log = Main.log;
+
+   public static final String USAGE = "Options:\n"
+      + "  --export=<file.html>      Export viewer and data.\n"
+      + "  --export-raw=<file>       Export raw data.  Type by extension: html, csv, tsv, json, sql, or xlsx.\n"
+      + "  --dialect=<type>          Database type of sql export: mysql, mssql, or postgre.\n"
+      + "  --bulk                    Sql export: COPY blocks for postgre, LOAD DATA with tsv files for mysql.\n"
+      + "  --split                   Raw json, csv, tsv, or sql export: one file per category, plus a manifest.\n"
+      + "  --deflate=<0-9>           Compression level of xlsx export.  Default 6.\n"
+      + "  --db=<file>               Database file.  Default " + Controller.DB_NAME + "\n"
+      + "  --threads=<n>             Export threads.  Default number of cpu cores, up to 21.\n"
+      + "  --cache=<mb>              Load content on demand with given cache size, instead of loading all.\n"
+      + "  --debug                   Show debug log and run data checks.";
+
+   private File target;
+   private boolean raw;
+   private ExporterRawSql.Dialect dialect;
+   private int deflateLevel = -1;
+   private boolean split;
+   private boolean bulk;
+   private File dbFile = new File( Controller.DB_NAME );
+   private int threads = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), 21 ) );
+   private int cacheMB = 0;
+   private Exporter exporter;
+
+   /**
+    * @return Process exit code
+    */
+   public static int run ( String[] args ) {
+      final ConsoleHandler console = new ConsoleHandler();
+      console.setLevel( Level.ALL );
+      log.addHandler( console );
+      log.setLevel( Level.INFO );
+
+      HeadlessExport export = new HeadlessExport();
+      try {
+         export.parse( args );
+      } catch ( IllegalArgumentException ex ) {
+         System.err.println( ex.getMessage() );
+         System.err.println( USAGE );
+         return 2;
+      }
+      try {
+         export.export();
+         return 0;
+      } catch ( Exception ex ) {
+         log.log( Level.SEVERE, "Export failed: {0}", Utils.stacktrace( ex ) );
+         return 1;
+      } catch ( NoClassDefFoundError ex ) { // Data model uses JavaFX properties and collections
+         if ( ex.getMessage() == null || ! ex.getMessage().startsWith( "javafx/" ) ) throw ex;
+         System.err.println( "Export requires javafx.base (OpenJFX) on class path or module path. Missing " + ex.getMessage() );
+         return 1;
+      }
+   }
+
+   private void parse ( String[] args ) {
+      for ( String arg : args ) {
+         final int eq = arg.indexOf( '=' );
+         final String key = eq < 0 ? arg : arg.substring( 0, eq ), value = eq < 0 ? "" : arg.substring( eq + 1 );
+         switch ( key ) {
+            case "--export":
+            case "--export-raw":
+               target = new File( value );
+               raw = key.equals( "--export-raw" );
+               break;
+            case "--dialect":
+               switch ( value.toLowerCase() ) {
+                  case "mysql"   : dialect = ExporterRawSql.Dialect.MYSQL; break;
+                  case "mssql"   : dialect = ExporterRawSql.Dialect.MSSQL; break;
+                  case "postgre" :
+                  case "ansi"    : dialect = ExporterRawSql.Dialect.POSTGRE; break;
+                  default: throw new IllegalArgumentException( "Unknown dialect " + value );
+               }
+               break;
+            case "--bulk":
+               bulk = true;
+               break;
+            case "--split":
+               split = true;
+               break;
+            case "--deflate":
+               deflateLevel = number( arg, value );
+               if ( deflateLevel > 9 ) throw new IllegalArgumentException( "Invalid deflate level " + arg );
+               break;
+            case "--db":
+               dbFile = new File( value );
+               break;
+            case "--threads":
+               threads = number( arg, value );
+               break;
+            case "--cache":
+               cacheMB = number( arg, value );
+               break;
+            case "--debug":
+               Main.debug.set( true );
+               log.setLevel( Level.FINE );
+               break;
+            case "--help":
+               throw new IllegalArgumentException( "Compendium downloader, headless export." );
+            default:
+               throw new IllegalArgumentException( "Unknown option " + arg );
+         }
+      }
+      if ( target == null || target.getName().isEmpty() )
+         throw new IllegalArgumentException( "Export target required." );
+      if ( ! dbFile.isFile() )
+         throw new IllegalArgumentException( "Database not found: " + dbFile );
+      exporter = createExporter();
+   }
+
+   private static int number ( String arg, String value ) {
+      try {
+         final int result = Integer.parseInt( value );
+         if ( result >= 0 ) return result;
+      } catch ( NumberFormatException ignored ) {}
+      throw new IllegalArgumentException( "Invalid number " + arg );
+   }
+
+   private Exporter createExporter () {
+      if ( ! raw ) return new ExporterMain();
+      final String name = target.getName().toLowerCase();
+      if ( name.endsWith( ".html" ) || name.endsWith( ".htm" ) )
+         return new ExporterRawHtml();
+      else if ( name.endsWith( ".csv" ) )
+         return new ExporterRawCsv();
+      else if ( name.endsWith( ".tsv" ) )
+         return new ExporterRawTsv();
+      else if ( name.endsWith( ".json" ) )
+         return new ExporterRawJson();
+      else if ( name.endsWith( ".xlsx" ) ) {
+         ExporterRawXlsx xlsx = new ExporterRawXlsx();
+         xlsx.setDeflateLevel( deflateLevel );
+         return xlsx;
+      } else if ( name.endsWith( ".sql" ) ) {
+         if ( dialect == null ) throw new IllegalArgumentException( "Sql export requires --dialect." );
+         ExporterRawSql sql = new ExporterRawSql();
+         sql.setDialect( dialect );
+         sql.setBulk( bulk );
+         return sql;
+      }
+      throw new IllegalArgumentException( "Unknown file type. Must be html, csv, tsv, json, sql, or xlsx." );
+   }
+
+   private void export () throws Exception {
+      final ProgressState state = new ProgressState( consoleProgress() );
+      final List<Category> categories = new ArrayList<>();
+      final ExportScheduler scheduler = new ExportScheduler( Math.max( 1, threads ) );
+      final long start = System.nanoTime();
+
+      log.log( Level.INFO, "Opening database {0}", dbFile.getAbsolutePath() );
+      final DbAbstraction dal = new DbAbstraction();
+      ContentCache cache = null;
+      try {
+         DbAbstraction.await( dal.setDb( SqlJetDb.open( dbFile, false ), categories, state, Runnable::run ) );
+
+         log.info( "Loading data" );
+         if ( cacheMB > 0 ) {
+            log.log( Level.CONFIG, "Loading content on demand with {0} MB cache", cacheMB );
+            Entry.contentLoader = cache = new ContentCache( dal, cacheMB );
+         }
+         DbAbstraction.await( dal.loadEntityContent( categories, state, cacheMB <= 0 ) );
+
+         try ( Exporter exp = exporter ) {
+            exp.setSplit( split );
+            exp.setState( target, ( status ) -> log.fine( status ), state );
+            List<Category> exportCategories = categories;
+            if ( ! raw ) {
+               exportCategories = new ArrayList<>();
+               Convert.beforeConvert( categories, exportCategories );
+            }
+            exp.preExport( exportCategories );
+            state.reset();
+            log.log( Level.INFO, "Exporting to {0} in {1} threads", new Object[]{ target, threads } );
+            Convert.stop.set( false );
+            Exporter.stop.set( false );
+            scheduler.export( exportCategories, exp, state );
+            exp.postExport( exportCategories );
+            if ( ! raw ) Convert.afterConvert();
+         }
+         log.log( Level.INFO, "Exported {0} entries in {1} s", new Object[]{ state.get(), ( System.nanoTime() - start ) / 1_000_000_000.0 } );
+
+      } finally {
+         scheduler.shutdown();
+         if ( cache != null ) {
+            cache.clear();
+            Entry.contentLoader = null;
+         }
+         DbAbstraction.await( dal.close() );
+      }
+   }
+
+   // Print progress when it moves forward by one percent
+   private static Consumer<Double> consoleProgress () {
+      final AtomicInteger shown = new AtomicInteger( -1 );
+      return ( progress ) -> {
+         final int percent = (int) ( progress * 100 );
+         int last;
+         while ( percent > ( last = shown.get() ) || ( percent == 0 && last == 100 ) ) // Reset to zero restarts
+            if ( shown.compareAndSet( last, percent ) ) {
+               if ( percent > 0 ) System.out.print( percent == 100 ? "100%\n" : percent + "%\r" );
+               break;
+            }
+      };
+   }
+}
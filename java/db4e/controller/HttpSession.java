@@ -0,0 +1,125 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.data.Entry;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.CookieHandler;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.security.auth.login.LoginException;
+import sheepy.util.HtmlScanner;
+
+/**
+ * Fetch session that downloads entry pages over plain http, without rendering them.
+ *
+ * Login cookies are shared with the browser through the default CookieHandler, which the browser engine installs.
+ * Connections are kept alive and reused by HttpURLConnection, as long as each response is read in full.
+ * Pages are read whole during fetch.  Entry content is extracted later by a streaming scanner,
+ * serialised like the browser's innerHTML.
+ */
+class HttpSession implements FetchSession {
+
+   private static final Logger log = Main.log;
+
+   private final String userAgent;
+
+   /**
+    * @param userAgent User agent of the browser that logged in, so that the server sees the same client.
+    */
+   HttpSession ( String userAgent ) {
+      this.userAgent = userAgent;
+      if ( CookieHandler.getDefault() == null )
+         log.log( Level.WARNING, "No cookie handler.  Direct download will not be logged in." );
+   }
+
+   @Override public Extractor fetch ( Entry entry ) throws Exception {
+      if ( Main.simulate.get() )
+         return ( e ) -> e.content = "Simulated";
+      final URL url = new URL( Controller.COMPENDIUM_URL + entry.id );
+      final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+      conn.setConnectTimeout( Controller.TIMEOUT_MS );
+      conn.setReadTimeout( Controller.TIMEOUT_MS );
+      if ( userAgent != null ) conn.setRequestProperty( "User-Agent", userAgent );
+      try {
+         final int code = conn.getResponseCode();
+         if ( code != HttpURLConnection.HTTP_OK ) {
+            drain( conn.getErrorStream() );
+            throw new IOException( "HTTP " + code + " " + conn.getResponseMessage() + " for " + entry.name );
+         }
+         if ( ! conn.getURL().getPath().equals( url.getPath() ) ) { // Redirected to login page
+            drain( conn.getInputStream() );
+            throw new LoginException( "Login required for " + entry.name );
+         }
+         final byte[] page = read( conn.getInputStream() );
+         final Charset charset = charset( conn );
+         return ( e ) -> extract( e, new BufferedReader( new InputStreamReader( new ByteArrayInputStream( page ), charset ) ) );
+      } catch ( SocketTimeoutException ex ) {
+         conn.disconnect(); // Do not reuse a stalled connection
+         throw new TimeoutException( "Timeout loading " + entry.name );
+      }
+   }
+
+   private static void extract ( Entry entry, Reader reader ) throws IOException, LoginException {
+      final boolean[] login = { false }, form = { false };
+      final String content = HtmlScanner.innerHtmlById( reader, "detail", ( tag ) -> {
+         switch ( tag.name ) {
+            case "button":
+               login[0] = true;
+               break;
+            case "input":
+               String type = tag.attr.get( "type" ), id = tag.attr.get( "id" );
+               if ( "submit".equalsIgnoreCase( type ) || "email".equals( id ) || "password".equals( id ) )
+                  login[0] = true;
+               break;
+            case "form":
+               if ( "form1".equals( tag.attr.get( "id" ) ) ) form[0] = true;
+         }
+      } );
+      if ( login[0] ) throw new LoginException( "Login required for " + entry.name );
+      if ( content == null || ! form[0] ) throw new IllegalStateException( "Incomplete or empty entry" );
+      entry.content = content;
+   }
+
+   private static Charset charset ( HttpURLConnection conn ) {
+      String type = conn.getContentType();
+      if ( type != null )
+         for ( String part : type.split( ";" ) ) {
+            part = part.trim();
+            if ( part.regionMatches( true, 0, "charset=", 0, 8 ) ) try {
+               return Charset.forName( part.substring( 8 ).replace( "\"", "" ) );
+            } catch ( IllegalArgumentException ex ) {
+               log.log( Level.FINE, "Unknown charset {0}", part );
+            }
+         }
+      return StandardCharsets.UTF_8;
+   }
+
+   // Read whole body, so that the connection can be reused.
+   private static byte[] read ( InputStream in ) throws IOException {
+      ByteArrayOutputStream result = new ByteArrayOutputStream( 32768 );
+      try ( InputStream body = in ) {
+         byte[] buf = new byte[ 8192 ];
+         for ( int len ; ( len = body.read( buf ) ) >= 0 ; )
+            result.write( buf, 0, len );
+      }
+      return result.toByteArray();
+   }
+
+   private static void drain ( InputStream in ) throws IOException {
+      if ( in != null ) read( in );
+   }
+
+   @Override public void close () {}
+}
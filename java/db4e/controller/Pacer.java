@@ -0,0 +1,127 @@
+package db4e.controller;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Adaptive download pacing, driven by a moving window of response latency and timeouts.
+ *
+ * While the server is healthy - no recent timeout, and recent latency not above the window average -
+ * the request interval shrinks a little on each response, down to Controller.INTERVAL_MS.
+ * When latency rises or a request times out, the interval doubles with jitter, up to Controller.MAX_INTERVAL_MS.
+ * Timeout retries wait an exponential, jittered delay.
+ * The same window gives the completion rate for remaining time estimate.
+ *
+ * Thread safe.  Bounds are read on each call, so that changes apply immediately.
+ */
+class Pacer {
+
+   private static final int WINDOW = 64;       // Responses kept for statistics
+   private static final int RECENT = 8;        // Responses that count as recent latency, also min responses to estimate time
+   private static final double SHRINK = 0.95;  // Interval multiplier per healthy response
+   private static final double SLOW = 1.5;     // Recent latency over window average that counts as rising
+   private static final int RETRY_BASE_SEC = 10;
+   private static final int RETRY_MAX_SEC = 300;
+
+   private final long[] finish = new long[ WINDOW ];   // Finish time in nano, ring buffer
+   private final int[] latency = new int[ WINDOW ];    // Latency in ms, or -1 for timeout
+   private int count, head; // Number of samples in window, index of next sample
+   private int sinceBackoff; // Responses since last backoff, so that one slow spell backs off once
+   private double interval = -1; // Current interval in ms, initialised on first use
+   private final RateLimiter limiter = new RateLimiter( this::interval );
+
+   /**
+    * Wait until next request may start.
+    */
+   void acquire () throws InterruptedException {
+      limiter.acquire();
+   }
+
+   /**
+    * Current request interval in ms, within user bounds.
+    */
+   synchronized int interval () {
+      final int min = minInterval(), max = maxInterval();
+      if ( interval < 0 ) interval = Math.min( max, Math.max( min, Controller.DEF_INTERVAL_MS ) );
+      interval = Math.min( max, Math.max( min, interval ) );
+      return (int) Math.round( interval );
+   }
+
+   /**
+    * Record a completed request.
+    *
+    * @param latencyMs Time from request start to page loaded.
+    */
+   synchronized void success ( long latencyMs ) {
+      add( (int) Math.min( Integer.MAX_VALUE, Math.max( 0, latencyMs ) ) );
+      if ( count < RECENT || ++sinceBackoff < RECENT ) return;
+      double all = 0, recent = 0;
+      int timeouts = 0;
+      for ( int i = 0 ; i < count ; i++ ) {
+         final int ms = latency[ index( i ) ];
+         if ( ms < 0 ) { ++timeouts; continue; }
+         all += ms;
+         if ( i < RECENT ) recent += ms;
+      }
+      all /= count - timeouts;
+      recent /= RECENT; // A recent timeout means unhealthy, so timeouts in recent sum do not matter
+      if ( recent > all * SLOW ) backoff();
+      else if ( timeouts == 0 ) interval = Math.max( minInterval(), interval() * SHRINK );
+   }
+
+   /**
+    * Record a timed out request, and back off.
+    */
+   synchronized void timeout () {
+      add( -1 );
+      backoff();
+   }
+
+   /**
+    * Seconds to wait before a retry after timeout: exponential with equal jitter, capped at 5 minutes.
+    *
+    * @param retry Retry count, starting from 1.
+    */
+   static int retryDelay ( int retry ) {
+      final int delay = (int) Math.min( RETRY_MAX_SEC, RETRY_BASE_SEC * ( 1L << Math.min( 16, Math.max( 0, retry - 1 ) ) ) );
+      return delay / 2 + ThreadLocalRandom.current().nextInt( delay / 2 + 1 );
+   }
+
+   /**
+    * Estimate seconds to finish given number of requests, from completion rate of the window.
+    * Never less than the current interval allows.
+    *
+    * @return Estimated seconds, or -1 if there is not enough data.
+    */
+   synchronized int remainingSeconds ( int remainingCount ) {
+      if ( count < RECENT ) return -1;
+      final double sec = ( finish[ index( 0 ) ] - finish[ index( count - 1 ) ] ) / 1e9;
+      final double perEntry = sec / ( count - 1 );
+      return (int) Math.ceil( remainingCount * Math.max( perEntry, interval() / 1000.0 ) );
+   }
+
+   private void backoff () {
+      final double next = Math.max( interval(), 100 ) * ( 2 + ThreadLocalRandom.current().nextDouble() * 0.5 );
+      interval = Math.min( maxInterval(), next );
+      sinceBackoff = 0;
+   }
+
+   private void add ( int ms ) {
+      finish[ head ] = System.nanoTime();
+      latency[ head ] = ms;
+      head = ( head + 1 ) % WINDOW;
+      if ( count < WINDOW ) ++count;
+   }
+
+   // Index of i-th latest sample
+   private int index ( int i ) {
+      return ( head - 1 - i + WINDOW ) % WINDOW;
+   }
+
+   private static int minInterval () {
+      return Math.max( Controller.MIN_INTERVAL_MS, Controller.INTERVAL_MS );
+   }
+
+   private static int maxInterval () {
+      return Math.max( minInterval(), Controller.MAX_INTERVAL_MS );
+   }
+}
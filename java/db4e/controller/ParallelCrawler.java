@@ -0,0 +1,277 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.controller.Controller.RunExcept;
+import db4e.controller.FetchSession.Extractor;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.security.auth.login.LoginException;
+
+/**
+ * Download entry content in three pipelined stages: fetch, extract, and persist.
+ *
+ * Fetch runs one thread per session, taking entries from a shared queue.  All sessions are paced by the same pacer.
+ * Extract runs on its own thread, taking downloaded pages from a bounded queue.
+ * Persist is the database writer, with a bounded number of save requests in flight.
+ * A full stage blocks the stage before it, so memory stays bounded when a later stage falls behind.
+ *
+ * When a session or the extractor finds that login has expired, all sessions pause until the calling thread has logged in again.
+ */
+class ParallelCrawler {
+
+   private static final Logger log = Main.log;
+   private static final int POLL_MS = 200;
+
+   private final List<FetchSession> sessions;
+   private final Pacer pacer;
+   private final DbAbstraction dal;
+   private final ProgressState state;
+
+   private final BlockingDeque<Job> pending = new LinkedBlockingDeque<>();
+   private final BlockingQueue<Job> downloaded;
+   private final int saveCapacity;
+   private final Semaphore saveSlots;
+   private final AtomicInteger remaining = new AtomicInteger(); // Entries not yet extracted
+   private final Object lock = new Object(); // Guards login and failure, and wakes up the calling thread
+   private boolean needLogin;
+   private int fetching; // Sessions with a request in flight
+   private Throwable failure;
+
+   final Stage fetch, extract, persist;
+
+   private static class Job {
+      final Category category;
+      final Entry entry;
+      Extractor page;
+      int retry;
+      Job ( Category category, Entry entry ) {
+         this.category = category;
+         this.entry = entry;
+      }
+   }
+
+   /**
+    * Throughput and queue depth of a download stage.
+    */
+   static class Stage {
+      final String name;
+      private final IntSupplier depth;
+      private final AtomicInteger done = new AtomicInteger();
+      private final long start = System.nanoTime();
+
+      private Stage ( String name, IntSupplier depth ) {
+         this.name = name;
+         this.depth = depth;
+      }
+
+      /** Entries waiting for this stage. */
+      int depth () { return depth.getAsInt(); }
+
+      /** Entries completed by this stage. */
+      int done () { return done.get(); }
+
+      /** Completed entries per second since download start. */
+      double rate () {
+         return done.get() / Math.max( 0.001, ( System.nanoTime() - start ) / 1e9 );
+      }
+
+      @Override public String toString () {
+         return String.format( "%s %.2f/s, queue %d", name, rate(), depth() );
+      }
+   }
+
+   ParallelCrawler ( List<FetchSession> sessions, Pacer pacer, DbAbstraction dal, ProgressState state ) {
+      this.sessions = sessions;
+      this.pacer = pacer;
+      this.dal = dal;
+      this.state = state;
+      downloaded = new ArrayBlockingQueue<>( Math.max( 4, sessions.size() * 2 ) );
+      saveCapacity = Math.max( 16, Controller.SAVE_BATCH * 2 );
+      saveSlots = new Semaphore( saveCapacity );
+      fetch   = new Stage( "fetch"  , pending::size );
+      extract = new Stage( "extract", downloaded::size );
+      persist = new Stage( "persist", () -> saveCapacity - saveSlots.availablePermits() );
+   }
+
+   /**
+    * Number of entries not yet downloaded and extracted.
+    */
+   int remaining () {
+      return remaining.get();
+   }
+
+   List<Stage> stages () {
+      return Arrays.asList( fetch, extract, persist );
+   }
+
+   /**
+    * Download all entries without content.  Blocks until all entries are downloaded and passed to the database writer.
+    * The writer may hold the last batch; call DbAbstraction.flushEntries afterwards.
+    *
+    * @param categories Categories to download.
+    * @param login Called on calling thread to log in again.  Throws if login failed.
+    * @param monitor Called on calling thread about twice a second.  Throws to stop download.
+    */
+   void download ( List<Category> categories, RunExcept login, Consumer<ParallelCrawler> monitor ) throws Exception {
+      for ( Category category : categories )
+         for ( Entry entry : category.entries )
+            if ( ! entry.contentDownloaded )
+               pending.add( new Job( category, entry ) );
+      remaining.set( pending.size() );
+      log.log( Level.CONFIG, "Downloading {0} entries in {1} sessions", new Object[]{ pending.size(), sessions.size() } );
+
+      List<Thread> workers = new ArrayList<>( sessions.size() + 1 );
+      try {
+         for ( FetchSession session : sessions )
+            workers.add( start( () -> fetch( session ), "Crawler session " + ( workers.size() + 1 ) ) );
+         workers.add( start( this::extract, "Crawler extract" ) );
+         while ( true ) {
+            boolean relogin;
+            synchronized ( lock ) {
+               if ( failure == null && ! needLogin && ! isDone() )
+                  lock.wait( 500 );
+               if ( failure != null ) throw failure instanceof Exception ? (Exception) failure : new RuntimeException( failure );
+               relogin = needLogin;
+            }
+            monitor.accept( this );
+            if ( relogin ) {
+               synchronized ( lock ) {
+                  while ( fetching > 0 ) lock.wait(); // Sessions may share the login browser
+               }
+               login.run();
+               synchronized ( lock ) {
+                  needLogin = false;
+                  lock.notifyAll();
+               }
+            } else if ( isDone() )
+               break;
+         }
+      } finally {
+         for ( Thread worker : workers ) worker.interrupt();
+         for ( Thread worker : workers ) worker.join( Controller.TIMEOUT_MS );
+         log.log( Level.CONFIG, "Download stages: {0}; {1}; {2}", stages().toArray() );
+      }
+   }
+
+   private boolean isDone () {
+      return remaining.get() <= 0 && saveSlots.availablePermits() >= saveCapacity;
+   }
+
+   private static Thread start ( Runnable task, String name ) {
+      Thread thread = new Thread( task, name );
+      thread.setDaemon( true );
+      thread.start();
+      return thread;
+   }
+
+   private void fetch ( FetchSession session ) {
+      try {
+         while ( remaining.get() > 0 ) {
+            Job job = pending.poll( POLL_MS, TimeUnit.MILLISECONDS ); // Jobs may be put back by other stages
+            if ( job == null ) continue;
+            synchronized ( lock ) {
+               while ( needLogin ) lock.wait();
+               ++fetching;
+            }
+            TimeoutException timeout = null;
+            try {
+               pacer.acquire();
+               final long start = System.currentTimeMillis();
+               job.page = session.fetch( job.entry );
+               pacer.success( System.currentTimeMillis() - start );
+            } catch ( LoginException ex ) {
+               relogin( job, ex );
+               continue;
+            } catch ( TimeoutException ex ) {
+               pacer.timeout();
+               timeout = ex;
+            } finally {
+               synchronized ( lock ) {
+                  --fetching;
+                  lock.notifyAll();
+               }
+            }
+            if ( timeout != null ) {
+               if ( ++job.retry > Controller.RETRY_COUNT ) throw timeout;
+               int sleep_sec = Pacer.retryDelay( job.retry );
+               log.log( Level.WARNING, "{0}, waiting {1} seconds before retry", new Object[]{ timeout.getMessage(), sleep_sec } );
+               TimeUnit.SECONDS.sleep( sleep_sec );
+               pending.addFirst( job );
+               continue;
+            }
+            fetch.done.incrementAndGet();
+            downloaded.put( job ); // Blocks when extract falls behind
+         }
+      } catch ( InterruptedException ex ) {
+         // Stopped by calling thread
+      } catch ( Exception ex ) {
+         fail( ex );
+      }
+   }
+
+   private void extract () {
+      try {
+         while ( remaining.get() > 0 ) {
+            Job job = downloaded.poll( POLL_MS, TimeUnit.MILLISECONDS );
+            if ( job == null ) continue;
+            try {
+               job.page.extract( job.entry );
+            } catch ( LoginException ex ) {
+               relogin( job, ex );
+               continue;
+            }
+            job.page = null;
+            extract.done.incrementAndGet();
+            saveSlots.acquire(); // Blocks when persist falls behind
+            remaining.decrementAndGet();
+            dal.saveEntry( job.category, job.entry ).whenComplete( ( saved, err ) -> {
+               saveSlots.release();
+               if ( err != null ) fail( err );
+               else if ( saved > 0 ) {
+                  persist.done.addAndGet( saved );
+                  state.add( saved );
+               }
+               synchronized ( lock ) {
+                  lock.notifyAll();
+               }
+            } );
+         }
+      } catch ( InterruptedException ex ) {
+         // Stopped by calling thread
+      } catch ( Exception ex ) {
+         fail( ex );
+      }
+   }
+
+   private void relogin ( Job job, LoginException ex ) {
+      log.log( Level.INFO, "{0}: {1}", new Object[]{ Thread.currentThread().getName(), ex.getMessage() } );
+      job.page = null;
+      pending.addFirst( job );
+      synchronized ( lock ) {
+         needLogin = true;
+         lock.notifyAll();
+      }
+   }
+
+   private void fail ( Throwable err ) {
+      synchronized ( lock ) {
+         if ( failure == null ) failure = err;
+         lock.notifyAll();
+      }
+   }
+}
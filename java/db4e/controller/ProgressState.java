@@ -1,20 +1,24 @@
 package db4e.controller;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class ProgressState {
    private final AtomicInteger done = new AtomicInteger( 0 );
    public volatile int total;
+   private final Map<String, Long> timings = new ConcurrentHashMap<>();
 
    private final Consumer<Double> updater;
 
-   ProgressState ( Consumer<Double> updater ) {
+   public ProgressState ( Consumer<Double> updater ) {
       this.updater = updater;
    }
 
    public void reset () {
       done.set( 0 );
+      timings.clear();
       update();
    }
 
@@ -37,6 +41,17 @@ public class ProgressState {
          update();
    }
 
+   /**
+    * Accumulate time spent on a task.
+    */
+   public void addTiming ( String task, long nanos ) {
+      timings.merge( task, nanos, Long::sum );
+   }
+
+   public Map<String, Long> getTimings () {
+      return timings;
+   }
+
    public void update () {
       updater.accept( getProgress() );
    }
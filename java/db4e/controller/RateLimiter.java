@@ -0,0 +1,34 @@
+package db4e.controller;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Request pacing shared by all download sessions.
+ *
+ * A token bucket that holds one token and refills it one interval after it is taken.
+ * Requests from all sessions are thus started at least one interval apart,
+ * no matter how many sessions are running.
+ *
+ * Thread safe.  Interval is read on each call, so that changes apply immediately.
+ */
+class RateLimiter {
+
+   private final IntSupplier intervalMs;
+   private long next = System.nanoTime(); // Time when next token is available
+
+   RateLimiter ( IntSupplier intervalMs ) {
+      this.intervalMs = intervalMs;
+   }
+
+   /**
+    * Wait until a token is available and take it.
+    * Next token is timed from when this one is taken, so that oversleeping never shortens the interval.
+    */
+   synchronized void acquire () throws InterruptedException {
+      long now;
+      while ( ( now = System.nanoTime() ) < next )
+         TimeUnit.NANOSECONDS.timedWait( this, next - now );
+      next = now + TimeUnit.MILLISECONDS.toNanos( Math.max( 0, intervalMs.getAsInt() ) );
+   }
+}
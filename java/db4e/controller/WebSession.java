@@ -0,0 +1,86 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.data.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javafx.application.Platform;
+import javafx.scene.web.WebEngine;
+import javax.security.auth.login.LoginException;
+import sheepy.util.JavaFX;
+import sheepy.util.ui.ConsoleWebView;
+
+/**
+ * Fetch session backed by a browser engine, either its own headless engine or the main browser.
+ * Browser engines share the same cookies, so sessions are logged in once the main browser is.
+ * Content is read from the page by the browser during fetch, since the page is gone on next fetch.
+ */
+class WebSession implements FetchSession {
+
+   private static final Extractor LOADED = ( entry ) -> {}; // Content is set and checked by Crawler.getEntry
+
+   private final WebEngine engine;
+   private final ConsoleWebView view; // Main browser, or null
+   private final Crawler crawler;
+   private volatile CompletableFuture<Void> loading;
+
+   private WebSession ( WebEngine engine, ConsoleWebView view ) {
+      this.engine = engine;
+      this.view = view;
+      crawler = new Crawler( engine );
+   }
+
+   /**
+    * Create a session with its own browser engine, which is created on FX thread.
+    */
+   static WebSession create () throws Exception {
+      CompletableFuture<WebSession> result = new CompletableFuture<>();
+      Platform.runLater( () -> { try {
+         WebSession session = new WebSession( new WebEngine(), null );
+         JavaFX.initWebEngine( session.engine, ( e, err ) -> session.loaded( err ), null );
+         result.complete( session );
+      } catch ( Exception ex ) {
+         result.completeExceptionally( ex );
+      } } );
+      return result.get( Controller.TIMEOUT_MS, TimeUnit.MILLISECONDS );
+   }
+
+   /**
+    * Create a session on the main browser.  Its console and last page are kept.
+    */
+   static WebSession of ( ConsoleWebView view ) {
+      return new WebSession( view.getWebEngine(), view );
+   }
+
+   private void loaded ( Throwable err ) {
+      CompletableFuture<Void> future = loading;
+      if ( future == null ) return;
+      if ( err == null ) future.complete( null );
+      else future.completeExceptionally( err );
+   }
+
+   @Override public Extractor fetch ( Entry entry ) throws Exception {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      loading = future;
+      if ( view != null ) view.handle( ( v ) -> loaded( null ), ( v, err ) -> loaded( err ) );
+      try {
+         crawler.openEntry( entry );
+         future.get( Controller.TIMEOUT_MS, TimeUnit.MILLISECONDS );
+      } catch ( TimeoutException ex ) {
+         Platform.runLater( engine.getLoadWorker()::cancel );
+         throw new TimeoutException( "Timeout loading " + entry.name );
+      } finally {
+         loading = null;
+         if ( view != null ) view.handle( null, null );
+      }
+      if ( ! Main.simulate.get() && crawler.needLogin() )
+         throw new LoginException( "Login required for " + entry.name );
+      crawler.getEntry( entry );
+      return LOADED;
+   }
+
+   @Override public void close () {
+      if ( view == null ) Platform.runLater( () -> engine.load( null ) );
+   }
+}
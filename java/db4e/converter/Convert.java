@@ -4,6 +4,7 @@ import db4e.Main;
 import db4e.controller.ProgressState;
 import db4e.data.Category;
 import db4e.data.Entry;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -12,8 +13,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -79,7 +85,7 @@ public abstract class Convert {
                      for ( Iterator<Entry> i = exported.entries.iterator() ; i.hasNext() ; ) {
                         Entry entry = i.next();
                         // Various empty glossaries. Such as "male" or "female".  glossary679 "familiar" does not even have published.
-                        if ( entry.id.equals( "glossary.aspx?id=679" ) || entry.content.contains( "</h1><p class=\"flavor\"></p><p class=\"publishedIn\">" ) ) {
+                        if ( entry.id.equals( "glossary.aspx?id=679" ) || entry.getContent().contains( "</h1><p class=\"flavor\"></p><p class=\"publishedIn\">" ) ) {
                            i.remove();
                            corrected( entry, "blacklist" );
                         }
@@ -128,14 +134,14 @@ public abstract class Convert {
          Entry entry = i.next();
          switch ( entry.fields[0] ) {
             case "Arms":
-               if ( ! entry.content.contains( ">Arms Slot: <" ) || ! entry.content.contains( " shield" ) ) break;
+               if ( ! entry.getContent().contains( ">Arms Slot: <" ) || ! entry.getContent().contains( " shield" ) ) break;
                // falls through
             case "Armor":
                i.remove();
                armour.entries.add( entry );
                break;
             case "Consumable":
-               if ( entry.content.contains( "<b>Consumable: </b>Assassin poison" ) ) {
+               if ( entry.getContent().contains( "<b>Consumable: </b>Assassin poison" ) ) {
                   i.remove();
                   map.get( "Poison" ).entries.add( entry );
                   // Correction handled by correctEntry
@@ -169,7 +175,7 @@ public abstract class Convert {
             case "Ammunition":
             case "Weapon":
                i.remove();
-               if ( entry.content.contains( "<br>Superior <br>" ) )
+               if ( entry.getContent().contains( "<br>Superior <br>" ) )
                   implement.entries.add( entry );
                else
                   weapon.entries.add( entry );
@@ -377,15 +383,118 @@ public abstract class Convert {
       this.category = category;
    }
 
-   public void convert ( ProgressState state ) throws InterruptedException {
+   /**
+    * Receives each entry right after it is converted, so that it can be written and released.
+    */
+   public static interface EntryWriter {
+      void write ( Entry entry ) throws IOException, InterruptedException;
+   }
+
+   /**
+    * Convert all entries of the category, then sort and index them.
+    * If an executor and a chunk size is set, large categories are split into chunks and converted in parallel,
+    * except in debug mode which checks for duplicate ids across the whole category.
+    *
+    * @param state Progress state
+    * @param writer Optional writer to receive each entry right after conversion.  Calls are serialised.
+    */
+   public void convert ( ProgressState state, EntryWriter writer ) throws IOException, InterruptedException {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Converting {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
-      if ( category.meta == null )
-         initialise();
+      initialise();
       final List<Entry> entries = category.entries;
+      final int size = entries.size();
+      if ( executor == null || chunkSize <= 0 || size <= chunkSize || Main.debug.get() )
+         convert( entries, state, writer );
+      else
+         convertInChunks( entries, state, writer );
+      if ( category.sorted == null ) {
+         beforeSort();
+         category.sorted = entries.toArray( new Entry[ size ] );
+         Arrays.sort( category.sorted, this::sortEntity );
+      }
+      if ( category.index == null )
+         category.index = mapIndex();
+   }
+
+   private Executor executor;
+   private int chunkSize;
+
+   /**
+    * Enable intra-category parallel conversion.
+    *
+    * @param executor Executor to run chunks on.  Null to convert in calling thread.
+    * @param chunkSize Number of entries per chunk.  0 to not split.
+    */
+   public void setParallel ( Executor executor, int chunkSize ) {
+      this.executor = executor;
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * Split entries into chunks, each converted by a new converter instance since converters are stateful.
+    * Helper converters are created and initialised here, so that only the calling thread sets up the category.
+    * The calling thread also converts chunks, so that this will not deadlock on a busy fixed pool;
+    * helpers that start late simply find no chunk left.
+    * Converted chunks are passed to the writer in entry order, so that output does not depend on thread timing.
+    */
+   private void convertInChunks ( List<Entry> entries, ProgressState state, EntryWriter writer ) throws IOException, InterruptedException {
+      final int size = entries.size(), chunkCount = ( size + chunkSize - 1 ) / chunkSize;
+      final AtomicInteger next = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch( chunkCount );
+      final AtomicReference<Throwable> error = new AtomicReference<>();
+      final boolean[] converted = new boolean[ chunkCount ];
+      final int[] written = { 0 }; // Chunks passed to writer, guarded by converted
+      log.log( Level.FINE, "Converting {0} in {1} chunks", new Object[]{ category.id, chunkCount });
+
+      final Consumer<Convert> worker = ( converter ) -> {
+         for ( int i ; ( i = next.getAndIncrement() ) < chunkCount ; done.countDown() ) try {
+            if ( error.get() != null ) continue;
+            long start = System.nanoTime();
+            converter.convert( entries.subList( i * chunkSize, Math.min( size, ( i + 1 ) * chunkSize ) ), state, null );
+            state.addTiming( category.id + " ranges", System.nanoTime() - start );
+            if ( writer != null ) synchronized ( converted ) {
+               converted[ i ] = true;
+               for ( ; written[0] < chunkCount && converted[ written[0] ] && error.get() == null ; written[0]++ )
+                  for ( Entry entry : entries.subList( written[0] * chunkSize, Math.min( size, ( written[0] + 1 ) * chunkSize ) ) )
+                     writer.write( entry );
+            }
+         } catch ( Exception | Error e ) {
+            error.compareAndSet( null, e );
+         }
+      };
+      final int helperCount = Math.min( chunkCount - 1, Runtime.getRuntime().availableProcessors() );
+      for ( int i = 0 ; i < helperCount ; i++ ) {
+         final Convert converter = getConverter( category );
+         converter.initialise();
+         executor.execute( () -> {
+            if ( next.get() < chunkCount ) worker.accept( converter );
+         } );
+      }
+      worker.accept( this );
+      ForkJoinPool.managedBlock( new ForkJoinPool.ManagedBlocker() { // Let work-stealing pool compensate while we wait
+         @Override public boolean block () throws InterruptedException {
+            done.await();
+            return true;
+         }
+         @Override public boolean isReleasable () {
+            return done.getCount() <= 0;
+         }
+      } );
+
+      final Throwable e = error.get();
+      if ( e instanceof IOException ) throw (IOException) e;
+      if ( e instanceof InterruptedException ) throw (InterruptedException) e;
+      if ( e instanceof RuntimeException ) throw (RuntimeException) e;
+      if ( e instanceof Error ) throw (Error) e;
+   }
+
+   private void convert ( List<Entry> entries, ProgressState state, EntryWriter writer ) throws IOException, InterruptedException {
       for ( Entry entry : entries ) {
          if ( entry.fulltext == null ) try {
             this.entry = entry;
+            if ( entry.meta != null && entry.baseMeta == null )
+               entry.baseMeta = entry.meta.clone();
             convertEntry();
             if ( ! corrections.isEmpty() ) {
                if ( entry.shortid.equals( "weapon147" ) ) // Duplicate of Arrow of Fate
@@ -401,14 +510,8 @@ public abstract class Convert {
          }
          if ( stop.get() ) throw new InterruptedException();
          state.addOne();
+         if ( writer != null ) writer.write( entry );
       }
-      if ( category.sorted == null ) {
-         beforeSort();
-         category.sorted = entries.toArray( new Entry[ entries.size() ] );
-         Arrays.sort( category.sorted, this::sortEntity );
-      }
-      if ( category.index == null )
-         category.index = mapIndex();
    }
 
    /**
@@ -442,7 +545,7 @@ public abstract class Convert {
          entry.meta = new Object[ length ];
          System.arraycopy( entry.fields, 0, entry.meta, 0, length );
       }
-      entry.data = normaliseData( entry.content );
+      entry.data = normaliseData( entry.getContent() );
       correctEntry();
       parseSourceBook();
       entry.fulltext = textData( entry.data );
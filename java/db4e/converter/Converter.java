@@ -5,11 +5,14 @@ import db4e.data.Category;
 import db4e.data.Entry;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import sheepy.util.MultiReplacer;
 
 /**
  * Default entry handling goes here.
@@ -79,7 +82,7 @@ public class Converter extends Convert {
       }
    }
 
-   private static final Map<String, String> books = new HashMap<>();
+   private static final Map<String, String> books = new ConcurrentHashMap<>();
 
    static {
       books.put( "Adventurer's Vault", "AV" );
@@ -161,10 +164,9 @@ public class Converter extends Convert {
                if ( book.equals( "Class Compendium" ) ) continue; // Never published
                if ( book.contains( " Magazine " ) )
                   abbr = book.replace( "gon Magazine ", "" ).replace( "geon Magazine ", "" );
-               else synchronized ( book ) {
-                  abbr = books.get( book );
+               else {
+                  abbr = books.putIfAbsent( book, book );
                   if ( abbr == null ) {
-                     books.put( book, book );
                      log.log( Level.FINE, "Source without abbrivation: {0} ({1})", new Object[]{ book, entry.shortid } );
                      abbr = book;
                   }
@@ -207,31 +209,21 @@ public class Converter extends Convert {
 
    private final Matcher regxEmptyTag = Pattern.compile( "<(\\w+)[^>]*></\\1>" ).matcher( "" );
 
+   private final DataNormaliser normaliser = new DataNormaliser( this::normaliseDataByRegex );
+
    @Override protected String normaliseData ( String data ) {
-      // Replace images with character. Every image really appears in the compendium.
-      data = data.replace( "<img src=\"images/bullet.gif\" alt=\"\">", "✦" ) // Four pointed star, 11x11, most common image at 100k hits
-                 .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/x.gif\">", "✦" ); // Four pointed star, 7x10, second most common image at 40k hits
-      if ( data.contains( "<img " ) ) { // Most likely monsters
-         data = data.replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/S2.gif\">", "(⚔) " ) // Basic melee, 14x14
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/S3.gif\">", "(➶) " ) // Basic ranged, 14x14
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/Z1.gif\">" , "ᗕ " ) // Blast, 20x20, for 10 monsters
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/Z1a.gif\">", "ᗕ " ) // Blast, 14x14
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/Z2a.gif\">", "⚔ " ) // Melee, 14x14
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/Z3a.gif\">", "➶ " ) // Ranged, 14x14
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/Z4.gif\">",  "✻ " ) // Area, 20x20
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/Z4a.gif\">", "✻ " ) // Area, 14x14
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/aura.png\" align=\"top\">", "☼ " ) // Aura, 14x14
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/aura.png\">", "☼ " ) // Aura, 14x14, ~1000?
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/1a.gif\">", "⚀" ) // Dice 1, 12x12, honors go to monster.4611/"Rort, Goblin Tomeripper"
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/2a.gif\">", "⚁" ) // Dice 2, 12x12, 4 monsters got this
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/3a.gif\">", "⚂" ) // Dice 3, 12x12, ~30
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/4a.gif\">", "⚃" ) // Dice 4, 12x12, ~560
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/5a.gif\">", "⚄" ) // Dice 5, 12x12, ~2100
-                    .replace( "<img src=\"http://www.wizards.com/dnd/images/symbol/6a.gif\">", "⚅" ); // Dice 6, 12x12, ~2500
-      }
-      // Convert spaces and breaks
-      data = data.replace( "&nbsp;", "\u00A0" )
-                 .replace( "<br/>", "<br>" ).replace( "<br />", "<br>" );
+      String result = normaliser.normalise( data );
+      if ( Main.debug.get() && ! result.equals( normaliseDataByRegex( data ) ) )
+         warn( "Normaliser result differs from regex" );
+      return result;
+   }
+
+   /**
+    * Original normalisation, one pass per rule.  Reference of DataNormaliser, its fallback, and NormaliserCheck.
+    */
+   String normaliseDataByRegex ( String data ) {
+      // Replace images with character, and convert spaces and breaks
+      data = DataNormaliser.SYMBOLS.replace( data );
       data = regxSpaces.reset( data ).replaceAll( " " )
       // Convert ’ to ' so that people can actually search for it
                  .replace( "’", "'" )
@@ -270,6 +262,10 @@ public class Converter extends Convert {
    private final Matcher regxHtmlTag = Pattern.compile( "</?\\w+[^>]*>" ).matcher( "" );
    private final Matcher regxSpaces  = Pattern.compile( " +" ).matcher( " " );
 
+   // Categories may replace this with an extractor that has an exclusion hook.
+   protected TextExtractor textExtractor = TextExtractor.DEFAULT;
+   private final Function<String, String> textFallback = this::textDataByRegex;
+
    /**
     * Convert HTML data into full text data for full text search.
     *
@@ -277,6 +273,16 @@ public class Converter extends Convert {
     * @return Text data
     */
    @Override protected String textData ( String data ) {
+      String result = textExtractor.extract( data, textFallback );
+      if ( Main.debug.get() && ! result.equals( textDataByRegex( textExtractor.exclude( data ) ) ) )
+         warn( "Text extractor result differs from regex" );
+      return result;
+   }
+
+   /**
+    * Original text conversion, one pass per rule.  Reference of TextExtractor, its fallback, and TextExtractorCheck.
+    */
+   String textDataByRegex ( String data ) {
       // Removes excluded text
       if ( data.indexOf( "power>" ) > 0 ) // Power flavour
          data = regxPowerFlav.reset( data ).replaceAll( "$1" );
@@ -291,8 +297,7 @@ public class Converter extends Convert {
       data = regxSpaces.reset( data ).replaceAll( " " );
 
       // HTML unescape. Compendium has relatively few escapes.
-      data = data.replace( "&amp;", "&" )
-                 .replace( "&gt;", ">" ); // glossary.433/"Weapons and Size"
+      data = TextExtractor.ENTITIES.replace( data );
 
       return data.trim();
    }
@@ -333,13 +338,10 @@ public class Converter extends Convert {
       return regx.reset( entry.data ).find();
    }
 
+   private static final MultiReplacer ABILITIES = new MultiReplacer( "Strength", "Str", "Constitution", "Con", "Dexterity", "Dex",
+      "Intelligence", "Int", "Wisdom", "Wis", "Charisma", "Cha" );
+
    protected final String shortenAbility ( Object txt ) {
-      return txt.toString()
-         .replace( "Strength", "Str" )
-         .replace( "Constitution", "Con" )
-         .replace( "Dexterity", "Dex" )
-         .replace( "Intelligence", "Int" )
-         .replace( "Wisdom", "Wis" )
-         .replace( "Charisma", "Cha" );
+      return ABILITIES.replace( txt.toString() );
    }
 }
\ No newline at end of file
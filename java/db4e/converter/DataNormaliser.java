@@ -0,0 +1,315 @@
+package db4e.converter;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import sheepy.util.MultiReplacer;
+
+/**
+ * Single pass html normaliser.  Produce the same result as Converter.normaliseDataByRegex,
+ * but scan the data once instead of making a copy per rule.
+ *
+ * Stage one replaces images, &amp;nbsp; and breaks, collapses spaces and converts ’.
+ * It feeds a scratch buffer on demand as stage two reads it.
+ * Stage two rewrites tag attributes, drops optional closing tags,
+ * cancels empty elements with a stack, and removes links, all into one output buffer.
+ *
+ * Data that breaks the assumptions of stage two, such as a '&lt;' inside a tag, is passed to fallback.
+ * Not thread safe; each converter should have its own instance.
+ */
+class DataNormaliser {
+
+   /**
+    * Literal replacements of stage one: images, &amp;nbsp; and breaks.  Also used by Converter.normaliseDataByRegex.
+    * Every image really appears in the compendium.
+    */
+   static final MultiReplacer SYMBOLS = new MultiReplacer(
+      "<img src=\"images/bullet.gif\" alt=\"\">", "✦", // Four pointed star, 11x11, most common image at 100k hits
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/x.gif\">", "✦", // Four pointed star, 7x10, second most common image at 40k hits
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/S2.gif\">", "(⚔) ", // Basic melee, 14x14
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/S3.gif\">", "(➶) ", // Basic ranged, 14x14
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/Z1.gif\">" , "ᗕ ", // Blast, 20x20, for 10 monsters
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/Z1a.gif\">", "ᗕ ", // Blast, 14x14
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/Z2a.gif\">", "⚔ ", // Melee, 14x14
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/Z3a.gif\">", "➶ ", // Ranged, 14x14
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/Z4.gif\">",  "✻ ", // Area, 20x20
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/Z4a.gif\">", "✻ ", // Area, 14x14
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/aura.png\" align=\"top\">", "☼ ", // Aura, 14x14
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/aura.png\">", "☼ ", // Aura, 14x14, ~1000?
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/1a.gif\">", "⚀", // Dice 1, 12x12, honors go to monster.4611/"Rort, Goblin Tomeripper"
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/2a.gif\">", "⚁", // Dice 2, 12x12, 4 monsters got this
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/3a.gif\">", "⚂", // Dice 3, 12x12, ~30
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/4a.gif\">", "⚃", // Dice 4, 12x12, ~560
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/5a.gif\">", "⚄", // Dice 5, 12x12, ~2100
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/6a.gif\">", "⚅", // Dice 6, 12x12, ~2500
+      "&nbsp;", "\u00A0",
+      "<br/>", "<br>",
+      "<br />", "<br>" );
+
+   private final Function<String, String> fallback;
+   private final Matcher regxLinkOpen = Pattern.compile( "<a(?: target=\"_new\")? href=\"(?:http://ww[w2].wizards.com/[^\"]*)?\"(?: target=\"_new\")?>" ).matcher( "" );
+   private final Matcher regxLinks = Pattern.compile( "<a(?: target=\"_new\")? href=\"(?:http://ww[w2].wizards.com/[^\"]*)?\"(?: target=\"_new\")?>([^<]*)</a>" ).matcher( "" );
+
+   // Stage one
+   private String input;
+   private int inPos, inLen;
+   private final StringBuilder scratch = new StringBuilder( 8192 );
+
+   // Stage two
+   private final StringBuilder out = new StringBuilder( 8192 );
+   private boolean inlineLinks;
+   private int[] opens = new int[ 48 ]; // Open tags at the end of output: out start, name start and name end in scratch.
+   private int openCount;
+   private int[] links = new int[ 16 ]; // Link open tags in output: out start, out end.
+   private int linkCount;
+
+   DataNormaliser ( Function<String, String> fallback ) {
+      this.fallback = fallback;
+   }
+
+   String normalise ( String data ) {
+      input = data;
+      inPos = 0;
+      inLen = data.length();
+      scratch.setLength( 0 );
+      out.setLength( 0 );
+      openCount = linkCount = 0;
+      // Line breaks are rare, and must be fixed before links are removed.  Do both at the end in that case.
+      inlineLinks = data.indexOf( '\n' ) < 0;
+      try {
+         if ( ! scan() ) return fallback.apply( data );
+      } finally {
+         input = null;
+      }
+
+      String result = out.toString();
+      if ( ! inlineLinks ) {
+         if ( result.indexOf( '\n' ) >= 0 )
+            result = result.replace( "\n,", "," ).replace( "\n.", "." ).replace( ".\n", "." );
+         result = regxLinks.reset( result ).replaceAll( "$1" );
+      }
+      return result.trim();
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Stage one
+   /////////////////////////////////////////////////////////////////////////////
+
+   /**
+    * Get a char of stage one result, converting more input as necessary.
+    * @return the char, or -1 if out of data.
+    */
+   private int charAt ( int pos ) {
+      while ( scratch.length() <= pos && inPos < inLen ) step();
+      return pos < scratch.length() ? scratch.charAt( pos ) : -1;
+   }
+
+   private void step () {
+      final char c = input.charAt( inPos );
+      if ( c == '<' || c == '&' ) {
+         final int match = SYMBOLS.matchAt( input, inPos );
+         if ( match >= 0 ) {
+            replace( SYMBOLS.from( match ), SYMBOLS.to( match ) );
+            return;
+         }
+      }
+      emit( c );
+      ++inPos;
+   }
+
+   private void replace ( String from, String to ) {
+      for ( int i = 0, len = to.length() ; i < len ; i++ )
+         emit( to.charAt( i ) );
+      inPos += from.length();
+   }
+
+   private void emit ( char c ) {
+      if ( c == ' ' ) {
+         final int len = scratch.length();
+         if ( len > 0 && scratch.charAt( len - 1 ) == ' ' ) return;
+      } else if ( c == '’' )
+         c = '\'';
+      scratch.append( c );
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Stage two
+   /////////////////////////////////////////////////////////////////////////////
+
+   /**
+    * @return false if data is not supported and should go to fallback.
+    */
+   private boolean scan () {
+      int i = 0;
+      boolean tagless = false; // True when there is no '>' after current position
+      for ( int c ; ( c = charAt( i ) ) >= 0 ; ) {
+         if ( c != '<' || tagless ) {
+            appendText( (char) c );
+            ++i;
+            continue;
+         }
+         final int c1 = charAt( i + 1 );
+         if ( c1 != '/' && c1 != '<' && ! isWord( c1 ) ) { // Not a tag
+            appendText( '<' );
+            ++i;
+            continue;
+         }
+         // Find end of tag, and make sure it is simple enough
+         int j = i + 1, quotes = 0;
+         boolean nested = false;
+         for ( int t ; ( t = charAt( j ) ) != '>' ; j++ ) {
+            if ( t < 0 ) break;
+            if ( t == '<' ) nested = true;
+            else if ( t == '"' ) ++quotes;
+         }
+         if ( charAt( j ) < 0 ) { // No more tags
+            tagless = true;
+            appendText( '<' );
+            ++i;
+            continue;
+         }
+         if ( nested || ( quotes & 1 ) != 0 ) return false;
+         if ( c1 == '/' )
+            closeTag( i, j );
+         else
+            openTag( i, j );
+         i = j + 1;
+      }
+      return true;
+   }
+
+   private void appendText ( char c ) {
+      out.append( c );
+      openCount = 0;
+   }
+
+   private void openTag ( int i, int j ) {
+      if ( isTag( i, j, "<tbody>" ) ) return; // Optional tag
+      final int start = out.length(), nameEnd = wordEnd( i + 1, j );
+      appendOpenTag( i, j, nameEnd );
+
+      // Keep track of open tags at the end of output, to cancel empty elements
+      if ( openCount * 3 >= opens.length ) opens = Arrays.copyOf( opens, opens.length * 2 );
+      opens[ openCount * 3     ] = start;
+      opens[ openCount * 3 + 1 ] = i + 1;
+      opens[ openCount * 3 + 2 ] = nameEnd;
+      ++openCount;
+
+      if ( inlineLinks && nameEnd == i + 2 && charAt( i + 1 ) == 'a' && regxLinkOpen.reset( out ).region( start, out.length() ).matches() ) {
+         if ( linkCount * 2 >= links.length ) links = Arrays.copyOf( links, links.length * 2 );
+         links[ linkCount * 2     ] = start;
+         links[ linkCount * 2 + 1 ] = out.length();
+         ++linkCount;
+      }
+   }
+
+   /**
+    * Append an open tag, converting attribute="value" to attribute=value,
+    * and attribute="value value" to attribute='value value', like regxAttr1, 2, and 3.
+    */
+   private void appendOpenTag ( int i, int j, int nameEnd ) {
+      if ( charAt( nameEnd ) == ' ' ) {
+         final int a0 = nameEnd + 1, aEnd = wordEnd( a0, j );
+         if ( aEnd > a0 && aEnd + 1 < j && charAt( aEnd ) == '=' && charAt( aEnd + 1 ) == '"' ) {
+            final int v0 = aEnd + 2;
+            int vEnd = v0;
+            boolean word = true, plain = true;
+            for ( int c ; vEnd < j && ( c = charAt( vEnd ) ) != '"' ; vEnd++ )
+               if ( ! isWord( c ) ) {
+                  word = false;
+                  if ( c == '\'' || c == '/' ) plain = false;
+               }
+            if ( vEnd > v0 && vEnd < j ) {
+               if ( vEnd + 1 == j ) { // <tag attr="value">
+                  if ( word ) {
+                     out.append( scratch, i, v0 - 1 ).append( scratch, v0, vEnd ).append( '>' );
+                     return;
+                  } else if ( plain ) {
+                     out.append( scratch, i, v0 - 1 ).append( '\'' ).append( scratch, v0, vEnd ).append( "'>" );
+                     return;
+                  }
+               } else if ( word && charAt( vEnd + 1 ) == ' ' ) { // <tag attr="value" attr="value">
+                  final int b0 = vEnd + 2, bEnd = wordEnd( b0, j );
+                  if ( bEnd > b0 && bEnd + 1 < j && charAt( bEnd ) == '=' && charAt( bEnd + 1 ) == '"' ) {
+                     final int w0 = bEnd + 2, wEnd = wordEnd( w0, j );
+                     if ( wEnd > w0 && wEnd + 1 == j && charAt( wEnd ) == '"' ) {
+                        out.append( scratch, i, v0 - 1 ).append( scratch, v0, vEnd ).append( ' ' )
+                           .append( scratch, b0, w0 - 1 ).append( scratch, w0, wEnd ).append( '>' );
+                        return;
+                     }
+                  }
+               }
+            }
+         }
+      }
+      out.append( scratch, i, j + 1 );
+   }
+
+   private void closeTag ( int i, int j ) {
+      // Optional closing tags, like regxOptionalClose
+      if ( isTag( i, j, "</tbody>" ) ) return;
+      if ( ( isTag( i, j, "</td>" ) || isTag( i, j, "</tr>" ) ) && optionalCloseFollows( j + 1 ) ) return;
+
+      // Empty element, like regxEmptyTag.  Closing name may be any prefix of the open tag's word.
+      final int x0 = i + 2, xEnd = wordEnd( x0, j );
+      if ( openCount > 0 && xEnd == j && xEnd > x0 ) {
+         final int top = ( openCount - 1 ) * 3, n0 = opens[ top + 1 ];
+         if ( xEnd - x0 <= opens[ top + 2 ] - n0 && regionEquals( n0, x0, xEnd - x0 ) ) {
+            out.setLength( opens[ top ] );
+            --openCount;
+            while ( linkCount > 0 && links[ linkCount * 2 - 1 ] > out.length() ) --linkCount;
+            return;
+         }
+      }
+
+      // Link with only text in it, like regxLinks.
+      if ( inlineLinks && linkCount > 0 && isTag( i, j, "</a>" ) ) {
+         final int top = ( linkCount - 1 ) * 2;
+         if ( out.lastIndexOf( "<" ) == links[ top ] ) {
+            out.delete( links[ top ], links[ top + 1 ] );
+            linkCount = openCount = 0; // Any outer link now has a tag in it
+            return;
+         }
+      }
+
+      out.append( scratch, i, j + 1 );
+      openCount = 0;
+   }
+
+   private boolean optionalCloseFollows ( int pos ) {
+      if ( charAt( pos ) != '<' ) return false;
+      if ( charAt( pos + 1 ) == '/' )
+         return startsWith( pos + 2, "td" ) || startsWith( pos + 2, "tr" ) || startsWith( pos + 2, "tbody" ) || startsWith( pos + 2, "table" );
+      return startsWith( pos + 1, "td" ) || startsWith( pos + 1, "tr" ) || startsWith( pos + 1, "tbody" );
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Utils
+   /////////////////////////////////////////////////////////////////////////////
+
+   private static boolean isWord ( int c ) {
+      return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) || c == '_';
+   }
+
+   private int wordEnd ( int pos, int limit ) {
+      while ( pos < limit && isWord( charAt( pos ) ) ) ++pos;
+      return pos;
+   }
+
+   private boolean isTag ( int i, int j, String tag ) {
+      return j - i + 1 == tag.length() && startsWith( i, tag );
+   }
+
+   private boolean startsWith ( int pos, String text ) {
+      for ( int k = 0, len = text.length() ; k < len ; k++ )
+         if ( charAt( pos + k ) != text.charAt( k ) ) return false;
+      return true;
+   }
+
+   private boolean regionEquals ( int a, int b, int len ) {
+      for ( int k = 0 ; k < len ; k++ )
+         if ( scratch.charAt( a + k ) != scratch.charAt( b + k ) ) return false;
+      return true;
+   }
+}
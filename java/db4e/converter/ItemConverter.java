@@ -12,13 +12,14 @@ import sheepy.util.Utils;
 public class ItemConverter extends LeveledConverter {
 
    private static final int CATEGORY = 0;
-   private static int TYPE;
-   private static int COST;
+   private int TYPE;
+   private int COST;
    private final boolean isGeneric;
 
    public ItemConverter ( Category category ) {
       super( category ); // Sort by category
       isGeneric = category.id.equals( "Item" );
+      textExtractor = SET_TEXT;
    }
 
    @Override public void initialise () {
@@ -505,11 +506,17 @@ public class ItemConverter extends LeveledConverter {
       }
    }
 
-   @Override protected String textData( String data ) {
-      if ( data.startsWith( "<h1 class=miset>" ) )
-         data = data.replaceFirst( "<h1 class=mihead>.*(?=<p class=publishedIn>)", "" );
-      return super.textData( data );
-   }
+   // Item sets: exclude from first item to the last "Published in" on the same line, i.e. <h1 class=mihead>.*(?=<p class=publishedIn>)
+   private static final TextExtractor SET_TEXT = new TextExtractor( data -> {
+      if ( ! data.startsWith( "<h1 class=miset>" ) ) return null;
+      for ( int start = data.indexOf( "<h1 class=mihead>" ) ; start >= 0 ; start = data.indexOf( "<h1 class=mihead>", start + 1 ) ) {
+         int lineEnd = start;
+         while ( lineEnd < data.length() && "\n\r\u0085\u2028\u2029".indexOf( data.charAt( lineEnd ) ) < 0 ) ++lineEnd;
+         final int end = data.lastIndexOf( "<p class=publishedIn>", lineEnd - 21 );
+         if ( end >= start + 17 ) return new int[]{ start, end };
+      }
+      return null;
+   } );
 
    @Override protected String[] getLookupName ( Entry entry ) {
       switch ( category.id ) {
@@ -0,0 +1,231 @@
+package db4e.converter;
+
+import java.nio.CharBuffer;
+import java.util.function.Function;
+import sheepy.util.MultiReplacer;
+
+/**
+ * Single pass fulltext extractor.  Produce the same result as Converter.textDataByRegex,
+ * but scan the data once into a reusable char buffer.
+ *
+ * Power and item flavours, source book prefix and errata are skipped,
+ * tags become a space, spaces are collapsed, and common entities are unescaped.
+ * Categories may add an exclusion hook, which removes a range of data before extraction.
+ *
+ * Data with a '&lt;' inside a tag, or before a source book prefix, is passed to fallback.
+ * Immutable and thread safe; each thread has its own buffer.
+ */
+class TextExtractor {
+
+   /**
+    * Find a range of data to exclude from text.
+    */
+   @FunctionalInterface interface Exclusion {
+      /**
+       * @return { start, end } of excluded range, or null to keep all data.
+       */
+      int[] find ( String data );
+   }
+
+   static final TextExtractor DEFAULT = new TextExtractor( null );
+
+   private static final String PUBLISHED = "<p class=publishedIn>Published in";
+   private static final String POWER_FLAVOR = "<p class=flavor><i>";
+   private static final String ITEM_FLAVOR = "<p class=miflavor>";
+
+   // HTML unescape.  Compendium has relatively few escapes.  "&amp;gt;" keeps the result of unescaping &amp; before &gt;
+   static final MultiReplacer ENTITIES = new MultiReplacer( "&amp;gt;", ">", "&amp;", "&", "&gt;", ">" ); // glossary.433/"Weapons and Size"
+
+   private static final ThreadLocal<char[]> buffer = ThreadLocal.withInitial( () -> new char[ 8192 ] );
+
+   private final Exclusion exclusion;
+
+   TextExtractor ( Exclusion exclusion ) {
+      this.exclusion = exclusion;
+   }
+
+   /**
+    * Remove the range given by exclusion hook, if any.
+    */
+   String exclude ( String data ) {
+      if ( exclusion == null ) return data;
+      final int[] range = exclusion.find( data );
+      if ( range == null ) return data;
+      return data.substring( 0, range[0] ) + data.substring( range[1] );
+   }
+
+   String extract ( String data, Function<String, String> fallback ) {
+      data = exclude( data );
+      final int len = data.length();
+      char[] buf = buffer.get();
+      if ( buf.length < len ) buffer.set( buf = new char[ len + len / 4 ] );
+
+      final boolean lines = hasLineBreak( data, 0, len );
+      int n = 0;
+      boolean power = false, item = false, escaped = false; // Power and item flavour are removed after the heading that opens them
+      for ( int i = 0 ; i < len ; ) {
+         char c = data.charAt( i );
+         if ( c == '<' ) {
+            if ( data.startsWith( PUBLISHED, i ) ) { // Has no line break
+               i += PUBLISHED.length();
+               continue;
+            }
+            int end = errataEnd( data, i );
+            if ( end < 0 ) end = tagEnd( data, i );
+            if ( end == NESTED ) return fallback.apply( data );
+            if ( end > 0 ) {
+               if ( data.startsWith( "<h1 class=", i ) ) {
+                  if ( isPowerHead( data, i + 10, end - 1 ) ) power = true;
+                  else if ( data.startsWith( "mihead>", i + 10 ) ) item = true;
+               } else if ( end - i == 5 && data.startsWith( "</h1>", i ) ) {
+                  if ( power ) {
+                     final int flavor = flavorEnd( data, end, POWER_FLAVOR, "</i></p>" );
+                     if ( flavor > 0 ) {
+                        end = flavor;
+                        power = false;
+                     }
+                  }
+                  if ( item ) {
+                     final int flavor = flavorEnd( data, end, ITEM_FLAVOR, "</p>" );
+                     if ( flavor > 0 ) {
+                        end = flavor;
+                        item = false;
+                     }
+                  }
+               }
+               if ( lines && hasLineBreak( data, i, end ) ) power = item = false;
+               if ( n == 0 || buf[ n - 1 ] != ' ' ) buf[ n++ ] = ' ';
+               i = end;
+               continue;
+            }
+         } else if ( c == '\u00A0' )
+            c = ' ';
+         else if ( c == '&' )
+            escaped = true;
+         else if ( isLineBreak( c ) )
+            power = item = false; // Flavour must be on same line as heading
+         if ( c != ' ' || n == 0 || buf[ n - 1 ] != ' ' ) buf[ n++ ] = c;
+         ++i;
+      }
+
+      // Trim
+      int start = 0;
+      while ( start < n && buf[ start ] <= ' ' ) ++start;
+      while ( n > start && buf[ n - 1 ] <= ' ' ) --n;
+      if ( escaped ) return ENTITIES.replace( CharBuffer.wrap( buf, start, n - start ) );
+      return new String( buf, start, n - start );
+   }
+
+   private static final int NESTED = -2;
+
+   /**
+    * Match &lt;/?\w+[^&gt;]*&gt;
+    * @return End of tag, -1 if not a tag, or NESTED if the tag contains or precedes '&lt;'.
+    */
+   private static int tagEnd ( String data, int pos ) {
+      int i = pos + 1;
+      if ( i < data.length() && data.charAt( i ) == '/' ) ++i;
+      if ( data.startsWith( PUBLISHED, i ) ) return NESTED; // Would join with text after the removed prefix
+      if ( i >= data.length() || ! isWord( data.charAt( i ) ) ) return -1;
+      final int close = data.indexOf( '>', i );
+      if ( close < 0 ) return -1;
+      final int open = data.indexOf( '<', i );
+      if ( open >= 0 && open < close ) return NESTED;
+      return close + 1;
+   }
+
+   /**
+    * Match &lt;br&gt;\w* \([123]?\d/[123]?\d/20[01]\d\)&lt;br&gt;[^&lt;]*
+    * Source book prefix is removed before errata, so it is skipped anywhere in the match.
+    * @return End of errata, or -1 if not matched.
+    */
+   private static int errataEnd ( String data, int pos ) {
+      int i = literal( data, pos, "<br>" );
+      if ( i < 0 ) return -1;
+      while ( isWord( charAt( data, i = skip( data, i ) ) ) ) ++i;
+      i = literal( data, i, " (" );
+      i = literal( data, dayOrMonth( data, i ), "/" );
+      i = literal( data, dayOrMonth( data, i ), "/20" );
+      if ( i < 0 ) return -1;
+      final char decade = charAt( data, i = skip( data, i ) );
+      if ( decade != '0' && decade != '1' ) return -1;
+      if ( ! isDigit( charAt( data, i = skip( data, i + 1 ) ) ) ) return -1;
+      i = literal( data, i + 1, ")<br>" );
+      if ( i < 0 ) return -1;
+      final int len = data.length();
+      while ( ( i = skip( data, i ) ) < len && data.charAt( i ) != '<' ) ++i;
+      return i;
+   }
+
+   // [123]?\d
+   private static int dayOrMonth ( String data, int i ) {
+      if ( i < 0 ) return -1;
+      final char c = charAt( data, i = skip( data, i ) );
+      if ( ! isDigit( c ) ) return -1;
+      final int next = skip( data, i + 1 );
+      if ( isDigit( charAt( data, next ) ) )
+         return c >= '1' && c <= '3' ? next + 1 : -1;
+      return i + 1;
+   }
+
+   /**
+    * Match a literal, skipping source book prefix.
+    * @return End of match, or -1 if not matched.
+    */
+   private static int literal ( String data, int i, String text ) {
+      if ( i < 0 ) return -1;
+      for ( int t = 0, len = text.length() ; t < len ; t++, i++ )
+         if ( charAt( data, i = skip( data, i ) ) != text.charAt( t ) ) return -1;
+      return i;
+   }
+
+   private static int skip ( String data, int i ) {
+      while ( data.startsWith( PUBLISHED, i ) ) i += PUBLISHED.length();
+      return i;
+   }
+
+   private static char charAt ( String data, int i ) {
+      return i < data.length() ? data.charAt( i ) : '\uFFFF';
+   }
+
+   // \w{5,9}power
+   private static boolean isPowerHead ( String data, int from, int to ) {
+      final int len = to - from;
+      if ( len < 10 || len > 14 || ! data.startsWith( "power", to - 5 ) ) return false;
+      for ( int i = from ; i < to ; i++ )
+         if ( ! isWord( data.charAt( i ) ) ) return false;
+      return true;
+   }
+
+   /**
+    * Match a flavour paragraph: prefix, [^&gt;]+, then suffix which contains the first '&gt;'.
+    * @return End of flavour, or -1 if not matched.
+    */
+   private static int flavorEnd ( String data, int pos, String prefix, String suffix ) {
+      if ( ! data.startsWith( prefix, pos ) ) return -1;
+      final int text = pos + prefix.length();
+      final int close = data.indexOf( '>', text );
+      final int end = close - suffix.indexOf( '>' );
+      if ( close < 0 || end <= text || ! data.startsWith( suffix, end ) ) return -1;
+      return end + suffix.length();
+   }
+
+   private static boolean hasLineBreak ( String data, int from, int to ) {
+      for ( int i = from ; i < to ; i++ )
+         if ( isLineBreak( data.charAt( i ) ) ) return true;
+      return false;
+   }
+
+   // Line terminators that regex '.' does not match
+   private static boolean isLineBreak ( char c ) {
+      return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+   }
+
+   private static boolean isWord ( char c ) {
+      return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || isDigit( c ) || c == '_';
+   }
+
+   private static boolean isDigit ( char c ) {
+      return c >= '0' && c <= '9';
+   }
+}
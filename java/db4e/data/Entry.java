@@ -1,5 +1,7 @@
 package db4e.data;
 
+import java.util.function.Function;
+
 /**
  * Represents a data entry
  */
@@ -8,15 +10,20 @@ public class Entry {
    public final String name; // Display name
    public String[] fields; // Field data loaded from compendium. Not loaded until export.
    public boolean contentDownloaded; // Indicate whether this entry has content in database.
-   public String content; // Actual content. Not loaded until export.
+   public String content; // Actual content. Not loaded until export, and not loaded at all when contentLoader is set.
+   public byte[] contentDigest; // Hash of content as stored in database, set by database.  Used to detect change without loading content.
 
    // Transformed data for export
    public String display_name; // Converted name for export
    public String shortid;     // Simplified id for export
    public String fulltext;   // Full text index text - without name and flavour
    public Object[] meta;    // Transform field data
+   public Object[] baseMeta; // Meta before conversion, restored on release
    public String data;     // Processed data text
 
+   // Load content on demand. Set by database when content is not kept in memory.
+   public static volatile Function<Entry, String> contentLoader;
+
    public Entry ( String id, String name ) {
       this.id = id;
       this.name = name;
@@ -36,11 +43,30 @@ public class Entry {
       copy.fields = this.fields;
       copy.contentDownloaded = true;
       copy.content = this.content;
+      copy.contentDigest = this.contentDigest;
       return copy;
    }
 
+   /**
+    * Return content of this entry, loading it on demand if it is not in memory.
+    */
+   public String getContent () {
+      if ( content != null || ! contentDownloaded ) return content;
+      final Function<Entry, String> loader = contentLoader;
+      return loader == null ? null : loader.apply( this );
+   }
+
+   /**
+    * Drop converted text after it is exported, and restore meta to pre-conversion state.
+    * The entry will be converted again on next export.
+    */
+   public void release () {
+      data = fulltext = null;
+      meta = baseMeta == null ? null : baseMeta.clone();
+   }
+
    public String getUrl() {
       return "http://www.wizards.com/dndinsider/compendium/" + id;
    }
 
-}
\ No newline at end of file
+}
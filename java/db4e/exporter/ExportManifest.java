@@ -0,0 +1,256 @@
+package db4e.exporter;
+
+import db4e.Main;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import sheepy.util.CsvCodec;
+
+/**
+ * Record of the last main export, used to skip categories that have not changed since.
+ *
+ * Stored next to exported data, one CSV record per line:
+ * version, then per category its input hash, entry hashes, file hashes, and name index.
+ * A category is unchanged if its input hash matches and all its files are intact.
+ * Any unreadable or outdated manifest is treated as empty, which means a full export.
+ */
+class ExportManifest {
+
+   private static final Logger log = Main.log;
+
+   static final String FILE = "export_manifest.csv";
+
+   private final Map<String, Record> records = new HashMap<>();
+
+   /**
+    * Export state of one category.
+    */
+   static class Record {
+      String hash; // Hash of all input of the category
+      final Map<String, String> entries = new LinkedHashMap<>(); // Entry id to hash of its data
+      final Map<String, String> files = new LinkedHashMap<>(); // File name to hash of its content
+      final Map<String, List<String>> index = new LinkedHashMap<>(); // Lookup name to entry short id
+      private final Map<String, MessageDigest> writing = new HashMap<>();
+
+      /**
+       * Open a file for write, and record its hash when sealed.
+       */
+      synchronized OutputStreamWriter open ( File folder, String name ) throws IOException {
+         MessageDigest digest = sha256();
+         writing.put( name, digest );
+         return new OutputStreamWriter( new DigestOutputStream( new BufferedOutputStream(
+            new FileOutputStream( new File( folder, name ), false ) ), digest ), UTF_8 );
+      }
+
+      /**
+       * Record hash of opened files.  Call after they are all closed.
+       */
+      synchronized void seal () {
+         for ( Map.Entry<String, MessageDigest> e : writing.entrySet() )
+            files.put( e.getKey(), hex( e.getValue().digest() ) );
+         writing.clear();
+      }
+
+      /**
+       * Check that recorded files exist and have not been modified.
+       */
+      boolean verify ( File folder ) {
+         if ( files.isEmpty() ) return false;
+         byte[] buf = new byte[ 65536 ];
+         for ( Map.Entry<String, String> e : files.entrySet() ) {
+            MessageDigest digest = sha256();
+            try ( InputStream in = Files.newInputStream( new File( folder, e.getKey() ).toPath() ) ) {
+               for ( int len ; ( len = in.read( buf ) ) > 0 ; )
+                  digest.update( buf, 0, len );
+            } catch ( IOException ex ) {
+               return false;
+            }
+            if ( ! hex( digest.digest() ).equals( e.getValue() ) ) return false;
+         }
+         return true;
+      }
+
+      /**
+       * Count entries that are new, changed, or removed since given record.
+       */
+      int diff ( Record last ) {
+         if ( last == null ) return entries.size();
+         int count = 0;
+         for ( Map.Entry<String, String> e : entries.entrySet() )
+            if ( ! e.getValue().equals( last.entries.get( e.getKey() ) ) ) ++count;
+         for ( String id : last.entries.keySet() )
+            if ( ! entries.containsKey( id ) ) ++count;
+         return count;
+      }
+   }
+
+   /**
+    * Hash the export input of a category: its fields and the id, name, fields, and content of each entry.
+    * Only raw data is hashed, since conversion may already have changed category and entry meta.
+    * Content is hashed by its database digest when known, so that content loaded on demand is not loaded.
+    */
+   static Record hash ( Category category ) {
+      Record record = new Record();
+      MessageDigest total = sha256(), digest = sha256();
+      update( total, Main.VERSION );
+      update( total, category.id );
+      for ( String header : category.fields ) update( total, header );
+      for ( Entry entry : category.entries ) {
+         update( digest, entry.id );
+         update( digest, entry.name );
+         if ( entry.fields != null )
+            for ( String field : entry.fields ) update( digest, field );
+         update( digest, "\1" );
+         if ( entry.contentDigest != null ) digest.update( entry.contentDigest );
+         else update( digest, entry.getContent() );
+         String hash = hex( digest.digest() );
+         record.entries.put( entry.id, hash );
+         update( total, entry.id );
+         update( total, hash );
+      }
+      record.hash = hex( total.digest() );
+      return record;
+   }
+
+   /**
+    * Hash a list of text, such as category hashes.
+    */
+   static String hash ( String ... parts ) {
+      MessageDigest digest = sha256();
+      for ( String part : parts ) update( digest, part );
+      return hex( digest.digest() );
+   }
+
+   synchronized Record get ( String category_id ) {
+      return records.get( category_id );
+   }
+
+   synchronized void put ( String category_id, Record record ) {
+      records.put( category_id, record );
+   }
+
+   /**
+    * Load manifest of last export.  Returns an empty manifest if it is missing, outdated, or unreadable.
+    */
+   static ExportManifest load ( File file ) {
+      ExportManifest result = new ExportManifest();
+      try ( BufferedReader reader = Files.newBufferedReader( file.toPath(), UTF_8 ) ) {
+         String line = reader.readLine();
+         if ( line == null || ! Arrays.equals( CsvCodec.parse( line ), new String[]{ "version", Main.VERSION } ) ) {
+            log.log( Level.CONFIG, "Export manifest is from another version, exporting all categories." );
+            return result;
+         }
+         while ( ( line = reader.readLine() ) != null ) {
+            String[] row = CsvCodec.parse( line );
+            if ( row.length < 3 ) throw new IllegalArgumentException( "Invalid manifest line: " + line );
+            if ( row[0].equals( "category" ) ) {
+               Record record = new Record();
+               record.hash = row[2];
+               result.records.put( row[1], record );
+               continue;
+            }
+            Record record = result.records.get( row[1] );
+            if ( record == null ) throw new IllegalArgumentException( "Unknown manifest category: " + row[1] );
+            switch ( row[0] ) {
+               case "entry":
+                  record.entries.put( row[2], row[3] );
+                  break;
+               case "file":
+                  record.files.put( row[2], row[3] );
+                  break;
+               case "index":
+                  record.index.put( row[2], new ArrayList<>( Arrays.asList( row ).subList( 3, row.length ) ) );
+                  break;
+               default:
+                  throw new IllegalArgumentException( "Invalid manifest line: " + line );
+            }
+         }
+      } catch ( NoSuchFileException ex ) {
+         log.log( Level.CONFIG, "No export manifest, exporting all categories." );
+         result.records.clear();
+      } catch ( IOException | RuntimeException ex ) {
+         log.log( Level.WARNING, "Cannot read export manifest, exporting all categories: {0}", ex );
+         result.records.clear();
+      }
+      return result;
+   }
+
+   /**
+    * Write manifest to a temp file and then move it into place, so that a partial manifest is never read.
+    */
+   synchronized void save ( File file ) throws IOException {
+      File temp = new File( file.getPath() + ".tmp" );
+      StringBuilder buffer = new StringBuilder( 256 );
+      try ( Writer writer = new OutputStreamWriter( new BufferedOutputStream( new FileOutputStream( temp, false ) ), UTF_8 ) ) {
+         writeRow( writer, buffer, "version", Main.VERSION );
+         for ( Map.Entry<String, Record> e : records.entrySet() ) {
+            String id = e.getKey();
+            Record record = e.getValue();
+            writeRow( writer, buffer, "category", id, record.hash );
+            for ( Map.Entry<String, String> entry : record.entries.entrySet() )
+               writeRow( writer, buffer, "entry", id, entry.getKey(), entry.getValue() );
+            for ( Map.Entry<String, String> f : record.files.entrySet() )
+               writeRow( writer, buffer, "file", id, f.getKey(), f.getValue() );
+            for ( Map.Entry<String, List<String>> name : record.index.entrySet() ) {
+               List<String> row = new ArrayList<>( name.getValue().size() + 3 );
+               row.add( "index" );
+               row.add( id );
+               row.add( name.getKey() );
+               row.addAll( name.getValue() );
+               writeRow( writer, buffer, row.toArray( new String[ row.size() ] ) );
+            }
+         }
+      }
+      Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+   }
+
+   private static void writeRow ( Writer writer, StringBuilder buffer, String ... fields ) throws IOException {
+      CsvCodec.build( fields, buffer ).append( '\n' );
+      writer.write( buffer.toString() );
+      buffer.setLength( 0 );
+   }
+
+   private static void update ( MessageDigest digest, String text ) {
+      if ( text != null ) digest.update( text.getBytes( UTF_8 ) );
+      digest.update( (byte) 0 );
+   }
+
+   static MessageDigest sha256 () {
+      try {
+         return MessageDigest.getInstance( "SHA-256" );
+      } catch ( NoSuchAlgorithmException ex ) {
+         throw new IllegalStateException( ex ); // Every Java platform must support SHA-256
+      }
+   }
+
+   static String hex ( byte[] data ) {
+      char[] result = new char[ data.length * 2 ];
+      for ( int i = 0 ; i < data.length ; i++ ) {
+         result[ i * 2     ] = Character.forDigit( ( data[ i ] >> 4 ) & 0xF, 16 );
+         result[ i * 2 + 1 ] = Character.forDigit( data[ i ] & 0xF, 16 );
+      }
+      return new String( result );
+   }
+}
@@ -11,14 +11,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import sheepy.util.CsvCodec;
 
 /**
  * Base exporter class that provides export interface and support functions.
@@ -31,6 +39,7 @@ public abstract class Exporter implements Closeable {
    private Consumer<String> stopChecker;
    protected File target;
    protected ProgressState state;
+   protected volatile boolean split; // One file per category, plus a manifest
 
    public synchronized void setState ( File target, Consumer<String> stopChecker, ProgressState state ) {
       this.stopChecker = stopChecker;
@@ -38,6 +47,14 @@ public abstract class Exporter implements Closeable {
       this.state = state;
    }
 
+   /**
+    * Write one file per category next to target, plus a manifest, instead of a single file.
+    * Supported by raw json, csv, tsv, and sql export.
+    */
+   public void setSplit ( boolean split ) {
+      this.split = split;
+   }
+
    public abstract void preExport ( List<Category> categories ) throws IOException, InterruptedException;
    public abstract void export ( Category category ) throws IOException, InterruptedException;
    public void postExport ( List<Category> categories ) throws IOException {};
@@ -59,6 +76,16 @@ public abstract class Exporter implements Closeable {
       return new OutputStreamWriter( new BufferedOutputStream( Files.newOutputStream( path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING ) ), StandardCharsets.UTF_8 );
    }
 
+   /**
+    * Write buffer to writer when it is big enough, except the last char, which is kept so that it can still be backspaced.
+    */
+   protected final void flush ( Writer writer, StringBuilder buf ) throws IOException {
+      final int len = buf.length() - 1;
+      if ( len < 32768 ) return;
+      writer.append( buf, 0, len );
+      buf.delete( 0, len );
+   }
+
    protected final StringBuilder backspace ( StringBuilder buf ) {
       buf.setLength( buf.length() - 1 );
       return buf;
@@ -79,4 +106,95 @@ public abstract class Exporter implements Closeable {
    protected final String js ( String in ) {
       return in.replace( "\\", "\\\\" ).replace( "\"", "\\\"" );
    }
-}
\ No newline at end of file
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Category output
+   /////////////////////////////////////////////////////////////////////////////
+
+   // Categories are exported in parallel, each to its own part as it is encoded.
+   // In single file output, parts are spool files that are appended to the target in category order,
+   // so that output does not depend on thread timing.
+   // In split output, parts are category files next to the target, listed in a manifest with their size and checksum.
+
+   private FileChannel output;
+   private final Map<String, Path> spools = new ConcurrentHashMap<>();
+   private final Map<String, String[]> parts = new ConcurrentHashMap<>(); // Manifest row of each category file
+
+   /** True if each category has its own file. */
+   protected boolean isSplit () {
+      return split;
+   }
+
+   /** Create or truncate target file for single file output. */
+   protected final synchronized void openOutput () throws IOException {
+      output = FileChannel.open( target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE );
+   }
+
+   /** Write text to target file. */
+   protected final synchronized void writeOutput ( String text ) throws IOException {
+      final ByteBuffer buf = ByteBuffer.wrap( text.getBytes( StandardCharsets.UTF_8 ) );
+      while ( buf.hasRemaining() ) output.write( buf );
+   }
+
+   /**
+    * Open the part of a category: its own file if split, otherwise a spool file next to the target.
+    */
+   protected final OutputStreamWriter openSpool ( Category category ) throws IOException {
+      final File folder = target.getAbsoluteFile().getParentFile();
+      if ( ! isSplit() ) {
+         final Path spool = Files.createTempFile( folder.toPath(), "." + category.id + "-", ".tmp" );
+         spools.put( category.id, spool );
+         return openStream( spool );
+      }
+      final String name = target.getName();
+      final File file = new File( folder, category.id + ( name.lastIndexOf( '.' ) < 0 ? "" : name.substring( name.lastIndexOf( '.' ) ).toLowerCase() ) );
+      final MessageDigest digest = ExportManifest.sha256();
+      final int entries = (int) category.entries.stream().filter( e -> e.contentDownloaded ).count();
+      return new OutputStreamWriter( new BufferedOutputStream( new DigestOutputStream( new FileOutputStream( file, false ), digest ) ), StandardCharsets.UTF_8 ) {
+         private boolean closed;
+         @Override public void close () throws IOException {
+            super.close();
+            if ( closed ) return;
+            closed = true;
+            parts.put( category.id, new String[]{ file.getName(), category.id, Integer.toString( entries ), Long.toString( file.length() ), ExportManifest.hex( digest.digest() ) } );
+         }
+      };
+   }
+
+   /**
+    * Append spools to target in given category order and delete them, or write manifest if split.
+    */
+   protected final synchronized void finishOutput ( List<Category> categories ) throws IOException {
+      if ( split ) {
+         final String name = target.getName();
+         final File manifest = new File( target.getAbsoluteFile().getParentFile(), ( name.lastIndexOf( '.' ) < 0 ? name : name.substring( 0, name.lastIndexOf( '.' ) ) ) + "_manifest.csv" );
+         final StringBuilder buf = new StringBuilder( 4096 ).append( "File,Category,Entries,Bytes,SHA-256\n" );
+         for ( Category category : categories ) {
+            final String[] row = parts.get( category.id );
+            if ( row != null ) CsvCodec.build( row, buf ).append( '\n' );
+         }
+         try ( Writer writer = openStream( manifest.toPath() ) ) {
+            writer.write( buf.toString() );
+         }
+         log.log( Level.CONFIG, "Wrote {0} category files and {1}", new Object[]{ parts.size(), manifest } );
+      }
+      for ( Category category : categories ) {
+         final Path spool = spools.remove( category.id );
+         if ( spool == null ) continue;
+         try ( FileChannel in = FileChannel.open( spool, StandardOpenOption.READ ) ) {
+            for ( long pos = 0, size = in.size() ; pos < size ; )
+               pos += in.transferTo( pos, size - pos, output );
+         }
+         Files.delete( spool );
+      }
+   }
+
+   /** Close target file and delete any spool left by a failed export. */
+   protected final synchronized void closeOutput () throws IOException {
+      for ( Path spool : spools.values() ) Files.deleteIfExists( spool );
+      spools.clear();
+      if ( output == null ) return;
+      output.close();
+      output = null;
+   }
+}
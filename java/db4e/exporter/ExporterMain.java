@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
@@ -33,13 +34,34 @@ import sheepy.util.ResourceUtils;
  */
 public class ExporterMain extends Exporter {
 
+   private static final String INDEX = "index.js"; // Manifest record of name index
+
    private String root;
+   private Executor executor;
+   private int chunkSize;
+   private ExportManifest lastManifest, manifest;
 
    @Override public synchronized void setState ( File target, Consumer<String> stopChecker, ProgressState state ) {
       super.setState( target, stopChecker, state );
       root = target.toString().replaceAll( "\\.html$", "" ) + "_files/";
    }
 
+   /**
+    * Convert large categories in parallel chunks on given executor.
+    */
+   public void setParallel ( Executor executor, int chunkSize ) {
+      this.executor = executor;
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * Start from empty manifests without preExport, so that every category is converted and written.  Used by ExportBench.
+    */
+   void resetManifest () {
+      lastManifest = new ExportManifest();
+      manifest = new ExportManifest();
+   }
+
    @Override public void preExport ( List<Category> categories ) throws IOException {
       log.log( Level.CONFIG, "Export target: {0}", target );
       try {
@@ -48,21 +70,37 @@ public class ExporterMain extends Exporter {
          throw new FileNotFoundException( "No viewer. Run ant make-viewer." );
       }
       new File( root ).mkdirs();
+      lastManifest = ExportManifest.load( new File( root, ExportManifest.FILE ) );
+      manifest = new ExportManifest();
       writeCatalog( categories );
       state.total = categories.stream().mapToInt( e -> e.getExportCount() ).sum() * 2;
    }
 
+   /**
+    * Convert and write a category, unless its input and files are unchanged since last export.
+    */
    @Override public void export ( Category category ) throws IOException, InterruptedException {
       Converter converter = Convert.getConverter( category );
       if ( converter == null ) return;
-      converter.convert( state );
-      writeCategory( category );
+      ExportManifest.Record record = ExportManifest.hash( category ), last = lastManifest.get( category.id );
+      if ( last != null && last.hash.equals( record.hash ) && last.verify( new File( root + "/" + category.id.toLowerCase() + "/" ) ) ) {
+         log.log( Level.FINE, "Skipping unchanged {0}", category.id );
+         manifest.put( category.id, last );
+         state.add( category.getExportCount() * 2 );
+         return;
+      }
+      log.log( Level.FINE, "Exporting {0}, {1} entries changed", new Object[]{ category.id, record.diff( last ) } );
+      converter.setParallel( executor, chunkSize );
+      writeCategory( category, converter, record );
+      category.index.forEach( ( name, ids ) -> record.index.put( name, new ArrayList<>( ids ) ) );
+      manifest.put( category.id, record );
    }
 
    @Override public void postExport ( List<Category> categories ) throws IOException {
       checkStop( "Writing viewer" );
       writeIndex( root, categories );
       writeViewer( root, target );
+      manifest.save( new File( root, ExportManifest.FILE ) );
    }
 
    private void writeCatalog ( List<Category> categories ) throws IOException {
@@ -76,50 +114,33 @@ public class ExporterMain extends Exporter {
       }
    }
 
-   private void writeCategory ( Category category ) throws IOException, InterruptedException {
+   /**
+    * Convert and write a category in one pass.
+    * Index and data are written as soon as each entry is converted.
+    * When content is loaded on demand, the heavy text is dropped right after, and entries are released after listing.
+    * Otherwise converted entries are kept, so that the next export does not convert them again.
+    * Listing is written last, in sorted order, because sort keys are only known after conversion.
+    */
+   private void writeCategory ( Category category, Converter converter, ExportManifest.Record record ) throws IOException, InterruptedException {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Writing {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
       String cat_id = category.id.toLowerCase();
+      final boolean release = Entry.contentLoader != null;
 
       StringBuilder buffer = new StringBuilder( 1024 );
       File catPath = new File( root + "/" + cat_id + "/" );
       catPath.mkdir();
-      int exported = 0;
       OutputStreamWriter[] writers = new OutputStreamWriter[ 100 ];
       Matcher regxIdGroup = Pattern.compile( "^([a-z]+).*?(\\d{1,2})$" ).matcher( "" );
 
-      try ( OutputStreamWriter listing = openStream( catPath + "/_listing.js" );
-            OutputStreamWriter   index = openStream( catPath + "/_index.js" );
-               ) {
-
-         // List header
-         buffer.append( "od.reader.jsonp_data_listing(20130703," );
-         str( buffer, cat_id ).append( ",[\"ID\",\"Name\"," );
-         for ( String header : category.meta )
-            str( buffer, header ).append( ',' );
-         write( "],[", listing, buffer );
+      try ( OutputStreamWriter index = record.open( catPath, "_index.js" ) ) {
 
          // Index header
          buffer.append( "od.reader.jsonp_data_index(20130616," );
          str( buffer, cat_id );
          write( ",{", index, buffer );
 
-         for ( Entry entry : category.sorted ) {
-            // Add to listing
-            str( buffer.append( '[' ), entry.shortid ).append( ',' );
-            str( buffer, entry.display_name ).append( ',' );
-            for ( Object field : entry.meta ) {
-               if ( field.getClass().isArray() ) {
-                  Object[] ary = (Object[]) field;
-                  buffer.append( "[\"" ).append( ary[0] ).append( "\"," );
-                  for ( int i = 1, len = ary.length ; i < len ; i++ )
-                     buffer.append( ary[i] ).append( ',' );
-                  backspace( buffer ).append( "]," );
-               } else
-                  str( buffer, field.toString() ).append( ',' );
-            }
-            write( "],", listing, buffer );
-
+         converter.convert( state, ( entry ) -> {
             // Add to full text
             str( buffer, entry.shortid ).append( ':' );
             str( buffer, entry.fulltext );
@@ -132,7 +153,7 @@ public class ExporterMain extends Exporter {
 
             // Write content
             if ( writers[ grp ] == null ) {
-               writers[ grp ] = openStream( catPath + "/data" + grp + ".js" );
+               writers[ grp ] = record.open( catPath, "data" + grp + ".js" );
                buffer.append( "od.reader.jsonp_batch_data(20160803," );
                str( buffer, cat_id );
                write( ",{", writers[grp], buffer );
@@ -140,13 +161,9 @@ public class ExporterMain extends Exporter {
             str( buffer, entry.shortid ).append( ':' );
             str( buffer, entry.data );
             write( ",", writers[grp], buffer );
-            ++exported;
+            if ( release ) entry.data = entry.fulltext = null;
+         } );
 
-            if ( stop.get() ) throw new InterruptedException();
-            state.addOne();
-         }
-
-         listing.write( "])" );
          index.write( "})" );
 
       } finally {
@@ -157,25 +174,72 @@ public class ExporterMain extends Exporter {
                writer.close();
             }
       }
+      writeListing( category, catPath, cat_id, record, release );
+      record.seal();
+   }
+
+   private void writeListing ( Category category, File catPath, String cat_id, ExportManifest.Record record, boolean release ) throws IOException, InterruptedException {
+      StringBuilder buffer = new StringBuilder( 1024 );
+      int exported = 0;
+
+      try ( OutputStreamWriter listing = record.open( catPath, "_listing.js" ) ) {
+
+         // List header
+         buffer.append( "od.reader.jsonp_data_listing(20130703," );
+         str( buffer, cat_id ).append( ",[\"ID\",\"Name\"," );
+         for ( String header : category.meta )
+            str( buffer, header ).append( ',' );
+         write( "],[", listing, buffer );
+
+         for ( Entry entry : category.sorted ) {
+            // Add to listing
+            str( buffer.append( '[' ), entry.shortid ).append( ',' );
+            str( buffer, entry.display_name ).append( ',' );
+            for ( Object field : entry.meta ) {
+               if ( field.getClass().isArray() ) {
+                  Object[] ary = (Object[]) field;
+                  buffer.append( "[\"" ).append( ary[0] ).append( "\"," );
+                  for ( int i = 1, len = ary.length ; i < len ; i++ )
+                     buffer.append( ary[i] ).append( ',' );
+                  backspace( buffer ).append( "]," );
+               } else
+                  str( buffer, field.toString() ).append( ',' );
+            }
+            write( "],", listing, buffer );
+            if ( release ) entry.release(); // Free memory when content is loaded on demand
+            ++exported;
+
+            if ( stop.get() ) throw new InterruptedException();
+            state.addOne();
+         }
+
+         listing.write( "])" );
+      }
       if ( exported != category.getExportCount() )
          throw new IllegalStateException( category.id + " entry exported " + category.sorted.length + " mismatch with total " + category.getExportCount() );
    }
 
+   /**
+    * Write name index of all categories, from their manifest records.
+    * Skipped if no category has changed and the last index is intact.
+    */
    private void writeIndex ( String target, List<Category> categories ) throws IOException {
-      Map<String, List<String>> index = new HashMap<>();
-      for ( Category category : categories ) synchronized ( index ) {
-         if ( index.isEmpty() )
-            index.putAll( category.index );
-         else
-            category.index.entrySet().forEach( ( entry ) -> {
-               List<String> list = index.get( entry.getKey() );
-               if ( list == null )
-                  index.put( entry.getKey(), new ArrayList<>( entry.getValue() ) );
-               else
-                  list.addAll( entry.getValue() );
-            });
+      List<ExportManifest.Record> records = new ArrayList<>( categories.size() );
+      for ( Category category : categories )
+         if ( manifest.get( category.id ) != null )
+            records.add( manifest.get( category.id ) );
+      ExportManifest.Record record = new ExportManifest.Record(), last = lastManifest.get( INDEX );
+      record.hash = ExportManifest.hash( records.stream().map( e -> e.hash ).toArray( String[]::new ) );
+      if ( last != null && last.hash.equals( record.hash ) && last.verify( new File( target ) ) ) {
+         log.log( Level.FINE, "Skipping unchanged name index" );
+         manifest.put( INDEX, last );
+         return;
       }
 
+      Map<String, List<String>> index = new HashMap<>();
+      for ( ExportManifest.Record e : records )
+         e.index.forEach( ( name, ids ) -> index.computeIfAbsent( name, k -> new ArrayList<>( ids.size() ) ).addAll( ids ) );
+
       String[] names = index.keySet().toArray( new String[ index.size() ] );
       Arrays.sort( names, ( a, b ) -> {
          int diff = b.length() - a.length();
@@ -197,9 +261,11 @@ public class ExporterMain extends Exporter {
          }
       }
 
-      try ( OutputStreamWriter writer = openStream( target + "/index.js" ) ) {
+      try ( OutputStreamWriter writer = record.open( new File( target ), "index.js" ) ) {
          write( "})", writer, buffer );
       }
+      record.seal();
+      manifest.put( INDEX, record );
    }
 
    private void testViewerExists () throws IOException {
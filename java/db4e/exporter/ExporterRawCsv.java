@@ -19,34 +19,40 @@ public class ExporterRawCsv extends Exporter {
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
    }
 
+   @Override protected boolean isSplit () {
+      return true; // Always one file per category.  Split option adds the manifest.
+   }
+
    @Override public void export ( Category category ) throws IOException, InterruptedException {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Writing {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
-      String root = target.getParent();
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-
-      buffer.append( "Url,Name," );
-      for ( String field : category.fields )
-         cell( buffer, field ).append( ',' );
-      buffer.append( "Content\n" );
-
-      for ( Entry entry : category.entries ) {
-         if ( ! entry.contentDownloaded ) continue;
-         cell( buffer.append( entry.getUrl() ).append( ',' ), entry.name ).append( ',' );
-         for ( String field : entry.fields )
+      StringBuilder buffer = new StringBuilder( 65536 );
+      try ( Writer writer = openSpool( category ) ) {
+         buffer.append( "Url,Name," );
+         for ( String field : category.fields )
             cell( buffer, field ).append( ',' );
-         cell( buffer, entry.content ).append( '\n' );
-      }
-      backspace( buffer );
-
-      if ( stop.get() ) throw new InterruptedException();
-      try ( Writer writer = openStream( root + "/" + category.id + ".csv" ) ) {
-         writer.write( buffer.toString() );
+         buffer.append( "Content\n" );
+
+         for ( Entry entry : category.entries ) {
+            if ( ! entry.contentDownloaded ) continue;
+            cell( buffer.append( entry.getUrl() ).append( ',' ), entry.name ).append( ',' );
+            for ( String field : entry.fields )
+               cell( buffer, field ).append( ',' );
+            cell( buffer, entry.getContent() ).append( '\n' );
+            if ( stop.get() ) throw new InterruptedException();
+            flush( writer, buffer );
+         }
+         backspace( buffer );
+         writer.append( buffer );
       }
       state.add( category.entries.size() );
    }
 
+   @Override public void postExport ( List<Category> categories ) throws IOException {
+      finishOutput( categories );
+   }
+
    private StringBuilder cell ( StringBuilder buf, String in ) {
       if ( in.contains( "\"" ) || in.contains( "\n" ) || in.contains( "," ) )
          return buf.append( '"' ).append( in.replace( "\"", "\"\"" ) ).append( '"' );
@@ -98,7 +98,7 @@ public class ExporterRawHtml extends Exporter {
          if ( stop.get() ) throw new InterruptedException();
          String buffer = template;
          buffer = buffer.replace( "[title]", Utils.escapeHTML( entry.name ) );
-         buffer = buffer.replace( "[body]", entry.content );
+         buffer = buffer.replace( "[body]", entry.getContent() );
          try ( Writer writer = openStream( root + cat_id + "/" + entry.id.replace( ".aspx?id=", "-" ) + ".html" ) ) {
             writer.write( buffer );
          }
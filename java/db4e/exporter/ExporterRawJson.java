@@ -15,14 +15,12 @@ import java.util.logging.Level;
  */
 public class ExporterRawJson extends Exporter {
 
-   private Writer writer;
-
    @Override public void preExport ( List<Category> categories ) throws IOException {
       log.log( Level.CONFIG, "Export raw Json: {0}", target );
       target.getParentFile().mkdirs();
-      synchronized ( this ) {
-         writer = openStream( target.toPath() );
-         writer.write( "{" );
+      if ( ! split ) {
+         openOutput();
+         writeOutput( "{" );
       }
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
    }
@@ -31,34 +29,37 @@ public class ExporterRawJson extends Exporter {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Building {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-      str( buffer, category.id ).append( ":[ " ); // extra space to allow backspace in empty category
-
-
-      for ( Entry entry : category.entries ) {
-         if ( ! entry.contentDownloaded ) continue;
-         buffer.append( '{' );
-         prop( buffer, "Url", entry.getUrl() ).append( ',' );
-         prop( buffer, "Name", entry.name ).append( ',' );
-         for ( int i = category.fields.length - 1 ; i >= 0 ; i-- )
-            prop( buffer, category.fields[ i ], entry.fields[ i ] ).append( ',' );
-         prop( buffer, "Content", entry.content );
-         buffer.append( "}," );
-      }
-      backspace( buffer ).append( "]," );
+      StringBuilder buffer = new StringBuilder( 65536 );
+      try ( Writer writer = openSpool( category ) ) {
+         if ( split ) buffer.append( '{' );
+         str( buffer, category.id ).append( ":[ " ); // extra space to allow backspace in empty category
 
-      synchronized ( this ) {
-         writer.write( buffer.toString() );
+         for ( Entry entry : category.entries ) {
+            if ( ! entry.contentDownloaded ) continue;
+            buffer.append( '{' );
+            prop( buffer, "Url", entry.getUrl() ).append( ',' );
+            prop( buffer, "Name", entry.name ).append( ',' );
+            for ( int i = category.fields.length - 1 ; i >= 0 ; i-- )
+               prop( buffer, category.fields[ i ], entry.fields[ i ] ).append( ',' );
+            prop( buffer, "Content", entry.getContent() );
+            buffer.append( "}," );
+            flush( writer, buffer );
+         }
+         backspace( buffer ).append( split ? "]}" : "]," );
+         writer.append( buffer );
       }
       state.add( category.entries.size() );
    }
 
-   @Override public synchronized void close() throws IOException {
-      if ( writer == null ) return;
+   @Override public void postExport ( List<Category> categories ) throws IOException {
+      finishOutput( categories );
+      if ( split ) return;
       // Need to add something to close the last comma.
-      writer.write( "\"__date\":\"" + ZonedDateTime.now().format( DateTimeFormatter.ISO_INSTANT ) + "\"}" );
-      writer.close();
-      writer = null;
+      writeOutput( "\"__date\":\"" + ZonedDateTime.now().format( DateTimeFormatter.ISO_INSTANT ) + "\"}" );
+   }
+
+   @Override public void close() throws IOException {
+      closeOutput();
    }
 
 
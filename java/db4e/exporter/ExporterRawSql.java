@@ -1,6 +1,5 @@
 package db4e.exporter;
 
-import db4e.controller.ProgressState;
 import db4e.data.Category;
 import db4e.data.Entry;
 import static db4e.exporter.Exporter.stop;
@@ -8,64 +7,101 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.List;
-import java.util.function.Consumer;
 import java.util.logging.Level;
-import javafx.scene.control.Alert;
-import javafx.scene.control.ButtonType;
 
 /**
- *\ Export raw data as Json
+ *\ Export raw data as SQL.
+ *
+ * Rows are inserted in multi-row INSERT statements sized by bytes, within the packet limit of each database.
+ * In bulk mode, Postgre data is inlined as COPY FROM STDIN blocks (for psql),
+ * and MySQL data is written to companion TSV files that the script loads with LOAD DATA LOCAL INFILE.
  */
 public class ExporterRawSql extends Exporter {
 
-   private Writer writer;
+   /**
+    * Database type, and its display name.
+    */
+   public enum Dialect {
+      MYSQL( "MySQL" ), MSSQL( "MS SQL" ), POSTGRE( "ANSI (Postgre)" );
 
-   private static final ButtonType MYSQL = new ButtonType( "MySQL" );
-   private static final ButtonType MSSQL = new ButtonType( "MS SQL" );
-   private static final ButtonType POSTGRE = new ButtonType( "ANSI (Postgre)" );
+      public final String label;
 
+      private Dialect ( String label ) {
+         this.label = label;
+      }
+
+      @Override public String toString () {
+         return label;
+      }
+   }
+
+   private Dialect dialect;
+   private boolean bulk;
+   private int batchBytes; // Max UTF-8 bytes of an INSERT statement, unless it has only one row
+   private int batchRows = Integer.MAX_VALUE; // Max rows of an INSERT statement
    private char id_quote_start;
    private char id_quote_end;
    private char string_prefix;
    private String varchar; // max 303
    private String text; // max 127599
 
-   @Override public synchronized void setState( File target, Consumer<String> stopChecker, ProgressState state ) {
-      super.setState(target, stopChecker, state);
-      ButtonType choice = new Alert( Alert.AlertType.CONFIRMATION, "Select database type:", MYSQL, MSSQL, POSTGRE, ButtonType.CANCEL ).showAndWait().orElse( ButtonType.CANCEL );
-      if ( choice.equals( MYSQL ) ) {
-         id_quote_start = id_quote_end = '`';
-         string_prefix = ' ';
-         varchar = " VARCHAR";
-         text = " MEDIUMTEXT";
-      } else if ( choice.equals( MSSQL ) ) {
-         id_quote_start = '[';
-         id_quote_end = ']';
-         string_prefix = 'N';
-         varchar = " NVARCHAR";
-         text = " NTEXT";
-      } else if ( choice.equals( POSTGRE ) ) {
-         id_quote_start = id_quote_end = '"';
-         string_prefix = ' ';
-         varchar = " VARCHAR";
-         text = " TEXT";
-      } else //if ( choice.equals( ButtonType.CANCEL ) )
-         throw new RuntimeException( "Cancelled" );
+   /**
+    * Set database type.  Must be called before export.
+    */
+   public synchronized void setDialect ( Dialect dialect ) {
+      this.dialect = dialect;
+      batchRows = Integer.MAX_VALUE;
+      switch ( dialect ) {
+         case MYSQL :
+            id_quote_start = id_quote_end = '`';
+            string_prefix = ' ';
+            varchar = " VARCHAR";
+            text = " MEDIUMTEXT";
+            batchBytes = 1024 * 1024; // Same as mysqldump, well within default max_allowed_packet
+            break;
+         case MSSQL :
+            id_quote_start = '[';
+            id_quote_end = ']';
+            string_prefix = 'N';
+            varchar = " NVARCHAR";
+            text = " NTEXT";
+            batchBytes = 1024 * 1024;
+            batchRows = 1000; // Max rows of a VALUES list
+            break;
+         case POSTGRE :
+            id_quote_start = id_quote_end = '"';
+            string_prefix = ' ';
+            varchar = " VARCHAR";
+            text = " TEXT";
+            batchBytes = 4 * 1024 * 1024; // No packet limit, but keep statements parseable
+            break;
+      }
+   }
+
+   /**
+    * Use COPY for Postgre and LOAD DATA for MySQL instead of INSERT.  MS SQL always use INSERT.
+    */
+   public synchronized void setBulk ( boolean bulk ) {
+      this.bulk = bulk;
    }
 
    @Override public void preExport ( List<Category> categories ) throws IOException, InterruptedException {
+      if ( dialect == null ) throw new IllegalStateException( "Database type not set" );
       log.log( Level.CONFIG, "Export raw {1}Sql{2}: {0}", new Object[]{ target, id_quote_start, id_quote_end } );
       target.getParentFile().mkdirs();
-      synchronized ( this ) {
-         writer = openStream( target.toPath() );
-         if ( id_quote_start == '`' || id_quote_start == '"' )
-            writer.write( "SET NAMES 'UTF8';\n" );
+      if ( ! split ) {
+         openOutput();
+         writeOutput( header() );
       }
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
    }
 
    @Override public void export ( Category category ) throws IOException, InterruptedException {
       if ( stop.get() ) throw new InterruptedException();
+      if ( category.entries.stream().noneMatch( e -> e.contentDownloaded ) ) { // Do not drop a table that has no data to replace it
+         state.add( category.entries.size() );
+         return;
+      }
       log.log( Level.FINE, "Building {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
       int maxField = category.fields.length - 1;
@@ -78,43 +114,138 @@ public class ExporterRawSql extends Exporter {
                maxLen[i+2] = entry.fields[i].length();
       }
 
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-      id( buffer.append( "\nDROP TABLE IF EXISTS " ), category.id ).append( ";\n" );
-      id( buffer.append( "CREATE TABLE " ), category.id ).append( "(\n  " );
-      id( buffer, "Url" ).append( varchar ).append( '(' ).append( maxLen[0] ).append( ") NOT NULL PRIMARY KEY,\n  " );
-      id( buffer, "Name" ).append( varchar ).append( '(' ).append( maxLen[1] ).append( ") NOT NULL,\n  " );
-      for ( int i = 0 ; i <= maxField ; i++ )
-         id( buffer, category.fields[i] ).append( varchar ).append( '(' ).append( maxLen[i+2] ).append( ") NOT NULL,\n  " );
-      id( buffer, "Content" ).append( text ).append( " NOT NULL \n   " );
-      buffer.append( ") " );
-
-      int rowCount = 0;
+      StringBuilder buffer = new StringBuilder( 65536 );
+      try ( Writer writer = openSpool( category ) ) {
+         if ( split ) buffer.append( header() );
+         id( buffer.append( "\nDROP TABLE IF EXISTS " ), category.id ).append( ";\n" );
+         id( buffer.append( "CREATE TABLE " ), category.id ).append( "(\n  " );
+         id( buffer, "Url" ).append( varchar ).append( '(' ).append( maxLen[0] ).append( ") NOT NULL PRIMARY KEY,\n  " );
+         id( buffer, "Name" ).append( varchar ).append( '(' ).append( maxLen[1] ).append( ") NOT NULL,\n  " );
+         for ( int i = 0 ; i <= maxField ; i++ )
+            id( buffer, category.fields[i] ).append( varchar ).append( '(' ).append( maxLen[i+2] ).append( ") NOT NULL,\n  " );
+         id( buffer, "Content" ).append( text ).append( " NOT NULL \n   " );
+         buffer.append( ") " );
+
+         if ( bulk && dialect == Dialect.POSTGRE )
+            copy( writer, buffer, category );
+         else if ( bulk && dialect == Dialect.MYSQL )
+            loadData( writer, buffer, category );
+         else
+            insert( writer, buffer, category );
+         writer.append( buffer );
+      }
+      state.add( category.entries.size() );
+   }
+
+   @Override public void postExport ( List<Category> categories ) throws IOException {
+      finishOutput( categories );
+   }
+
+   @Override public void close() throws IOException {
+      closeOutput();
+   }
+
+   // Multi-row INSERT statements, each up to batchBytes and batchRows.
+   private void insert ( Writer writer, StringBuilder buffer, Category category ) throws IOException {
+      final StringBuilder row = new StringBuilder( 4096 );
+      int rowCount = 0, bytes = 0;
       for ( Entry entry : category.entries ) {
          if ( ! entry.contentDownloaded ) continue;
-         if ( rowCount++ % 20 == 0 )
-            id( backspace( buffer ).append( ";\nINSERT INTO "), category.id ).append( " VALUES " );
-         buffer.append( "\n(" );
-         txt( buffer, entry.getUrl() ).append( ',' );
-         txt( buffer, entry.name ).append( ',' );
+         row.setLength( 0 );
+         row.append( "\n(" );
+         txt( row, entry.getUrl() ).append( ',' );
+         txt( row, entry.name ).append( ',' );
          for ( String field : entry.fields )
-            txt( buffer, field ).append( ',' );
-         txt( buffer, entry.content );
-         buffer.append( ")," );
+            txt( row, field ).append( ',' );
+         txt( row, entry.getContent() );
+         row.append( ")," );
+         final int size = utf8Length( row );
+         if ( rowCount == 0 || rowCount >= batchRows || bytes + size > batchBytes ) {
+            backspace( buffer ).append( ";\n" ); // End last statement, or the create table
+            final int start = buffer.length();
+            id( buffer.append( "INSERT INTO " ), category.id ).append( " VALUES " );
+            rowCount = 0;
+            bytes = utf8Length( buffer.subSequence( start, buffer.length() ) ); // Header of new statement
+         }
+         ++rowCount;
+         bytes += size;
+         buffer.append( row );
+         flush( writer, buffer );
       }
+      backspace( buffer ).append( ";\n" );
+   }
 
-      if ( ! buffer.toString().endsWith( " VALUES " ) ) { // If any entry was written
-         backspace( buffer ).append( ";\n" );
-         synchronized ( this ) {
-            writer.write( buffer.toString() );
+   // Postgre COPY block in text format.  Needs psql or another client that sends STDIN data.
+   private void copy ( Writer writer, StringBuilder buffer, Category category ) throws IOException {
+      backspace( buffer ).append( ";\n" );
+      id( buffer.append( "COPY " ), category.id ).append( " FROM STDIN;\n" );
+      for ( Entry entry : category.entries ) {
+         if ( ! entry.contentDownloaded ) continue;
+         row( buffer, entry );
+         flush( writer, buffer );
+      }
+      buffer.append( "\\.\n" );
+   }
+
+   // MySQL LOAD DATA of a companion tsv, written next to the target in the same escaped format.
+   private void loadData ( Writer writer, StringBuilder buffer, Category category ) throws IOException {
+      final String name = target.getName();
+      final File data = new File( target.getAbsoluteFile().getParentFile(), ( name.lastIndexOf( '.' ) < 0 ? name : name.substring( 0, name.lastIndexOf( '.' ) ) ) + "_" + category.id + ".tsv" );
+      final StringBuilder rows = new StringBuilder( 65536 );
+      try ( Writer tsv = openStream( data.toPath() ) ) {
+         for ( Entry entry : category.entries ) {
+            if ( ! entry.contentDownloaded ) continue;
+            row( rows, entry );
+            flush( tsv, rows );
          }
+         tsv.append( rows );
       }
-      state.add( category.entries.size() );
+      backspace( buffer ).append( ";\nLOAD DATA LOCAL INFILE '" ).append( data.getName().replace( "'", "''" ) ).append( "' INTO TABLE " );
+      id( buffer, category.id ).append( " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n';\n" );
+   }
+
+   // One row of tab separated values, with backslash escapes understood by both COPY and LOAD DATA.
+   private StringBuilder row ( StringBuilder buffer, Entry entry ) {
+      tsv( buffer, entry.getUrl() ).append( '\t' );
+      tsv( buffer, entry.name ).append( '\t' );
+      for ( String field : entry.fields )
+         tsv( buffer, field ).append( '\t' );
+      return tsv( buffer, entry.getContent() ).append( '\n' );
+   }
+
+   private static StringBuilder tsv ( StringBuilder buffer, String text ) {
+      for ( int i = 0, len = text.length() ; i < len ; i++ ) {
+         final char c = text.charAt( i );
+         switch ( c ) {
+            case '\\' : buffer.append( "\\\\" ); break;
+            case '\t' : buffer.append( "\\t" ); break;
+            case '\n' : buffer.append( "\\n" ); break;
+            case '\r' : buffer.append( "\\r" ); break;
+            default   : buffer.append( c );
+         }
+      }
+      return buffer;
+   }
+
+   private static int utf8Length ( CharSequence text ) {
+      int result = 0;
+      for ( int i = 0, len = text.length() ; i < len ; i++ ) {
+         final char c = text.charAt( i );
+         if ( c < 0x80 ) result += 1;
+         else if ( c < 0x800 ) result += 2;
+         else if ( Character.isHighSurrogate( c ) ) { result += 4; ++i; }
+         else result += 3;
+      }
+      return result;
    }
 
-   @Override public synchronized void close() throws IOException {
-      if ( writer == null ) return;
-      writer.close();
-      writer = null;
+   private String header () {
+      String result = id_quote_start == '`' || id_quote_start == '"' ? "SET NAMES 'UTF8';\n" : "";
+      if ( bulk && dialect == Dialect.MYSQL )
+         result = "-- Loads companion tsv files.  Run from this folder with: mysql --local-infile=1\n" + result;
+      else if ( bulk && dialect == Dialect.POSTGRE )
+         result = "-- Contains COPY FROM STDIN data.  Run with: psql -f\n" + result;
+      return result;
    }
 
    private StringBuilder id ( StringBuilder buffer, String id ) {
@@ -20,34 +20,40 @@ public class ExporterRawTsv extends Exporter {
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
    }
 
+   @Override protected boolean isSplit () {
+      return true; // Always one file per category.  Split option adds the manifest.
+   }
+
    @Override public void export ( Category category ) throws IOException, InterruptedException {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Writing {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
-      String root = target.getParent();
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-
-      buffer.append( "Url\tName\t" );
-      for ( String field : category.fields )
-         cell( buffer, field ).append( '\t' );
-      buffer.append( "Content\n" );
-
-      for ( Entry entry : category.entries ) {
-         if ( ! entry.contentDownloaded ) continue;
-         cell( buffer.append( entry.getUrl() ).append( '\t' ), entry.name ).append( '\t' );
-         for ( String field : entry.fields )
+      StringBuilder buffer = new StringBuilder( 65536 );
+      try ( Writer writer = openSpool( category ) ) {
+         buffer.append( "Url\tName\t" );
+         for ( String field : category.fields )
             cell( buffer, field ).append( '\t' );
-         cell( buffer, entry.content ).append( '\n' );
-      }
-      backspace( buffer );
-
-      if ( stop.get() ) throw new InterruptedException();
-      try ( Writer writer = openStream( root + "/" + category.id + ".tsv" ) ) {
-         writer.write( buffer.toString() );
+         buffer.append( "Content\n" );
+
+         for ( Entry entry : category.entries ) {
+            if ( ! entry.contentDownloaded ) continue;
+            cell( buffer.append( entry.getUrl() ).append( '\t' ), entry.name ).append( '\t' );
+            for ( String field : entry.fields )
+               cell( buffer, field ).append( '\t' );
+            cell( buffer, entry.getContent() ).append( '\n' );
+            if ( stop.get() ) throw new InterruptedException();
+            flush( writer, buffer );
+         }
+         backspace( buffer );
+         writer.append( buffer );
       }
       state.add( category.entries.size() );
    }
 
+   @Override public void postExport ( List<Category> categories ) throws IOException {
+      finishOutput( categories );
+   }
+
    private StringBuilder cell ( StringBuilder buf, String in ) {
       return buf.append( in.replace( "\t", " " ).replace( "\n", " " ) );
    }
@@ -3,44 +3,82 @@ package db4e.exporter;
 import db4e.data.Category;
 import db4e.data.Entry;
 import static db4e.exporter.Exporter.stop;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 import sheepy.util.ResourceUtils;
 
 /**
- *\ Export raw data as XLSX
+ *\ Export raw data as XLSX.
+ * Worksheets are streamed row by row.  Short texts go to per-thread shared string tables, content is written inline.
+ * All parts are written once into a single zip stream: template, workbook, each sheet when it is done, then shared strings.
  */
 public class ExporterRawXlsx extends Exporter {
 
-   private FileSystem fs; // Zip file system
-   private static final Map<String,Integer> SharedString = new HashMap<>( 78200, 1f );
-   private static final AtomicInteger shareCount = new AtomicInteger();
+   private ZipOutputStream zip; // Lock before use
+   private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+   private final AtomicInteger shareCount = new AtomicInteger(); // Next shared string id
+   private final List<StringTable> tables = new ArrayList<>(); // String tables of all threads
+   private final ThreadLocal<StringTable> strings = ThreadLocal.withInitial( () -> {
+      try {
+         StringTable table = new StringTable();
+         synchronized ( tables ) { tables.add( table ); }
+         return table;
+      } catch ( IOException ex ) {
+         throw new UncheckedIOException( ex );
+      }
+   } );
+
+   /**
+    * @param level Deflate level of the xlsx package, 0 to 9, or -1 for default.
+    */
+   public synchronized void setDeflateLevel ( int level ) {
+      if ( level < -1 || level > 9 ) throw new IllegalArgumentException( "Invalid deflate level " + level );
+      deflateLevel = level;
+   }
 
    @Override public void preExport ( List<Category> categories ) throws IOException {
       log.log( Level.CONFIG, "Export raw XLSX: {0}", target );
       StringBuilder buffer = new StringBuilder( 65535 );
-      synchronized ( SharedString ) {
-         SharedString.clear();
-         shareCount.set( 0 );
-      }
 
       target.getParentFile().mkdirs();
-      try ( InputStream reader = ResourceUtils.getStream( "res/xlsx.zip" ) ) {
-         Files.copy( reader, target.toPath(), StandardCopyOption.REPLACE_EXISTING );
-      }
       synchronized ( this ) {
-         fs = FileSystems.newFileSystem( URI.create( "jar:" + target.toURI() ) , new HashMap<>() );
+         zip = new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( target, false ), 65536 ) );
+         zip.setLevel( deflateLevel );
+      }
+      // Template parts, except those written below
+      try ( ZipInputStream template = new ZipInputStream( ResourceUtils.getStream( "res/xlsx.zip" ) ) ) {
+         final byte[] copyBuffer = new byte[ 8192 ];
+         for ( ZipEntry entry ; ( entry = template.getNextEntry() ) != null ; ) {
+            if ( entry.isDirectory() ) continue;
+            zip.putNextEntry( new ZipEntry( entry.getName() ) );
+            for ( int len ; ( len = template.read( copyBuffer ) ) > 0 ; )
+               zip.write( copyBuffer, 0, len );
+            zip.closeEntry();
+         }
       }
 
       // Sheet list
@@ -52,9 +90,7 @@ public class ExporterRawXlsx extends Exporter {
       for ( Category category : categories )
          buffer.append( "<sheet name=\"" ).append( category.id ).append( "\" sheetId=\"" ).append( id++ ).append( "\" r:id=\"rId" ).append( category.id ).append( "\"/>" );
       buffer.append( "</sheets></workbook>" );
-      try ( Writer writer = openStream( fs.getPath( "xl/workbook.xml" ) ) ) {
-         writer.write( buffer.toString() );
-      }
+      putEntry( "xl/workbook.xml", buffer );
 
       // Sheet file location
       buffer.setLength( 0 );
@@ -66,9 +102,7 @@ public class ExporterRawXlsx extends Exporter {
       for ( Category category : categories )
          buffer.append( "<Relationship Id=\"rId" ).append( category.id ).append( "\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/" ).append( category.id ).append( ".xml\"/>" );
       buffer.append( "</Relationships>" );
-      try ( Writer writer = openStream( fs.getPath( "xl/_rels/workbook.xml.rels" ) ) ) {
-         writer.write( buffer.toString() );
-      }
+      putEntry( "xl/_rels/workbook.xml.rels", buffer );
 
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
    }
@@ -77,37 +111,50 @@ public class ExporterRawXlsx extends Exporter {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Writing {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-      buffer.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
-         "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\" xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\" xmlns:x14ac=\"http://schemas.microsoft.com/office/spreadsheetml/2009/9/ac\">"
-              // Freeze top row
-              + "<sheetViews><sheetView tabSelected=\"1\" workbookViewId=\"0\"><pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/><selection pane=\"bottomLeft\" activeCell=\"A2\" sqref=\"A2\"/></sheetView></sheetViews>"
-              + "<sheetData>" );
-
-      buffer.append( "<row>" );
-      cell( buffer, "Url" );
-      cell( buffer, "Name" );
-      for ( String field : category.fields )
-         cell( buffer, field );
-      cell( buffer, "Content" );
-      buffer.append( "</row>" );
-
-      for ( Entry entry : category.entries ) {
-         if ( ! entry.contentDownloaded ) continue;
-         buffer.append( "<row>" );
-         cell( buffer, entry.getUrl() );
-         cell( buffer, entry.name );
-         for ( String field : entry.fields )
-            cell( buffer, field );
-         longCell( buffer, entry.content );
-         buffer.append( "</row>" );
-      }
-      buffer.append( "</sheetData></worksheet>" );
+      final StringTable table = strings.get();
+      final StringBuilder buffer = new StringBuilder( 65536 );
+      final Path sheet = Files.createTempFile( "db4e-sheet-", ".xml" ); // Sheets are written in parallel, but zip takes one entry at a time
+      try {
+         try ( Writer writer = openStream( sheet ) ) {
+            buffer.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+               "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\" xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\" xmlns:x14ac=\"http://schemas.microsoft.com/office/spreadsheetml/2009/9/ac\">"
+                    // Freeze top row
+                    + "<sheetViews><sheetView tabSelected=\"1\" workbookViewId=\"0\"><pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/><selection pane=\"bottomLeft\" activeCell=\"A2\" sqref=\"A2\"/></sheetView></sheetViews>"
+                    + "<sheetData>" );
 
-      if ( stop.get() ) throw new InterruptedException();
+            buffer.append( "<row>" );
+            cell( buffer, table, "Url" );
+            cell( buffer, table, "Name" );
+            for ( String field : category.fields )
+               cell( buffer, table, field );
+            cell( buffer, table, "Content" );
+            buffer.append( "</row>" );
 
-      try ( Writer writer = openStream( fs.getPath( "xl/worksheets/" + category.id + ".xml" ) ) ) {
-         writer.write( buffer.toString() );
+            for ( Entry entry : category.entries ) {
+               if ( ! entry.contentDownloaded ) continue;
+               buffer.append( "<row>" );
+               cell( buffer, table, entry.getUrl() );
+               cell( buffer, table, entry.name );
+               for ( String field : entry.fields )
+                  cell( buffer, table, field );
+               longCell( buffer, entry.getContent() );
+               buffer.append( "</row>" );
+               if ( buffer.length() >= 32768 ) { // Write rows as they are produced
+                  if ( stop.get() ) throw new InterruptedException();
+                  writer.append( buffer );
+                  buffer.setLength( 0 );
+               }
+            }
+            buffer.append( "</sheetData></worksheet>" );
+            writer.append( buffer );
+         }
+         synchronized ( zip ) {
+            zip.putNextEntry( new ZipEntry( "xl/worksheets/" + category.id + ".xml" ) );
+            Files.copy( sheet, zip );
+            zip.closeEntry();
+         }
+      } finally {
+         Files.deleteIfExists( sheet );
       }
       state.add( category.entries.size() );
    }
@@ -115,49 +162,54 @@ public class ExporterRawXlsx extends Exporter {
    @Override public void postExport( List<Category> categories ) throws IOException {
       checkStop( "Building table" );
       state.set( -1 );
-      StringBuilder buffer = new StringBuilder( 46 * 1024 * 1024 );
-      synchronized ( SharedString ) {
-         int size = SharedString.size();
-         String[] list = new String[ size ];
-         for ( Map.Entry<String, Integer> e : SharedString.entrySet() )
-            list[ e.getValue() ] = e.getKey();
-
-         buffer.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
-            "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"" ).append( shareCount.get() ).append( "\" uniqueCount=\"" ).append( size ).append( "\">" );
-         for ( String text : list )
-            buffer.append( "<si><t>" ).append( xml( text ) ).append( "</t></si>" );
-      }
-      buffer.append( "</sst>" );
-
-      try ( Writer writer = openStream( fs.getPath( "xl/sharedStrings.xml" ) ) ) {
-         writer.write( buffer.toString() );
+      final int count = tables.stream().mapToInt( e -> e.count ).sum();
+      synchronized ( zip ) {
+         zip.putNextEntry( new ZipEntry( "xl/sharedStrings.xml" ) );
+         zip.write( ( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+            "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"" + count + "\" uniqueCount=\"" + shareCount.get() + "\">" ).getBytes( UTF_8 ) );
+         merge( tables, zip );
+         zip.write( "</sst>".getBytes( UTF_8 ) );
+         zip.closeEntry();
+         zip.finish();
       }
-
-      checkStop( "Packing to xlsx" );
       state.set( state.total );
    }
 
    @Override public synchronized void close() throws IOException {
-      if ( fs == null ) return;
-      fs.close();
-      fs = null;
+      for ( StringTable table : tables ) table.delete();
+      tables.clear();
+      if ( zip == null ) return;
+      zip.close();
+      zip = null;
    }
 
    /////////////////////////////////////////////////////////////////////////////
    // Utils
    /////////////////////////////////////////////////////////////////////////////
 
-   /** Break a long text into 32k chunk to work around Excel's limit. */
-   private StringBuilder longCell ( StringBuilder buffer, String text ) throws InterruptedException {
+   private void putEntry ( String name, CharSequence text ) throws IOException {
+      synchronized ( zip ) {
+         zip.putNextEntry( new ZipEntry( name ) );
+         zip.write( text.toString().getBytes( UTF_8 ) );
+         zip.closeEntry();
+      }
+   }
+
+   /** Break a long text into 32k chunk to work around Excel's limit.  Content is mostly unique, so it is written inline. */
+   private StringBuilder longCell ( StringBuilder buffer, String text ) {
       while ( text.length() > 32000 ) {
-         cell( buffer, text.substring( 0, 32000 ) );
+         inlineCell( buffer, text.substring( 0, 32000 ) );
          text = text.substring( 32000 );
       }
-      return cell( buffer, text );
+      return text.isEmpty() ? buffer.append( "<c/>" ) : inlineCell( buffer, text );
+   }
+
+   private StringBuilder inlineCell ( StringBuilder buffer, String text ) {
+      return buffer.append( "<c t=\"inlineStr\"><is><t>" ).append( xml( text ) ).append( "</t></is></c>" );
    }
 
    /** Output text to a cell. */
-   private StringBuilder cell ( StringBuilder buffer, String text ) throws InterruptedException {
+   private StringBuilder cell ( StringBuilder buffer, StringTable table, String text ) throws IOException {
       if ( text.isEmpty() )
          return buffer.append( "<c/>" );
       else if ( text.length() > 32000 )
@@ -167,29 +219,14 @@ public class ExporterRawXlsx extends Exporter {
       for ( int i = text.length() - 1 ; i >= 0 ; i-- ) {
          char c = text.charAt( i );
          if ( c < '0' || c > '9' )
-            return cellText( buffer, text );
+            return buffer.append( "<c t=\"s\"><v>").append( table.id( text ) ).append( "</v></c>" );
       }
 
       // Number does not need to be shared.
       return buffer.append( "<c><v>" ).append( text ).append( "</v></c>" );
    }
 
-   /** Add text to xlsx's shared string table and put its id into cell. */
-   private StringBuilder cellText ( StringBuilder buffer, String text ) throws InterruptedException {
-      shareCount.incrementAndGet();
-      Integer pos;
-      text.hashCode(); // Pre-calculate hash out of lock
-      synchronized ( SharedString ) {
-         pos = SharedString.get( text );
-         if ( pos == null ) {
-            pos = SharedString.size();
-            SharedString.put( text, pos );
-         }
-      }
-      return buffer.append( "<c t=\"s\"><v>").append( pos ).append( "</v></c>" );
-   }
-
-   private String xml ( String text ) {
+   private static String xml ( String text ) {
       for ( int i = text.length() - 1 ; i >= 0 ; i-- ) {
          char c = text.charAt( i );
          if ( c == '<' || c == '>' || c == '&' )
@@ -200,4 +237,85 @@ public class ExporterRawXlsx extends Exporter {
       }
       return text;
    }
-}
\ No newline at end of file
+
+   /**
+    * Shared strings of one export thread.
+    * Ids are taken from a counter shared by all threads, so each table has increasing ids and tables can be merged by id.
+    * A text used by several threads is stored once per thread, which the format allows.
+    * New strings are spooled to a temp file in id order; only the text to id map is kept in memory.
+    */
+   private class StringTable {
+      private final Map<String,Integer> ids = new HashMap<>( 4096 );
+      private final File spool;
+      private final DataOutputStream out;
+      private int count; // Number of cells that use this table
+
+      StringTable () throws IOException {
+         spool = File.createTempFile( "db4e-sst-", ".tmp" );
+         spool.deleteOnExit();
+         out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( spool ) ) );
+      }
+
+      int id ( String text ) throws IOException {
+         ++count;
+         Integer id = ids.get( text );
+         if ( id == null ) {
+            id = shareCount.getAndIncrement();
+            ids.put( text, id );
+            byte[] item = ( "<si><t>" + xml( text ) + "</t></si>" ).getBytes( UTF_8 );
+            out.writeInt( id );
+            out.writeInt( item.length );
+            out.write( item );
+         }
+         return id;
+      }
+
+      void delete () throws IOException {
+         out.close();
+         spool.delete();
+      }
+   }
+
+   /** Write items of all string tables to output in id order. */
+   private static void merge ( List<StringTable> tables, OutputStream target ) throws IOException {
+      PriorityQueue<Spool> heads = new PriorityQueue<>( Math.max( 1, tables.size() ), ( a, b ) -> Integer.compare( a.id, b.id ) );
+      try {
+         for ( StringTable table : tables ) {
+            table.out.close();
+            Spool spool = new Spool( table.spool );
+            if ( spool.next() ) heads.add( spool );
+            else spool.in.close();
+         }
+         for ( Spool spool ; ( spool = heads.poll() ) != null ; ) {
+            target.write( spool.item, 0, spool.length );
+            if ( spool.next() ) heads.add( spool );
+            else spool.in.close();
+         }
+      } finally {
+         for ( Spool spool : heads ) spool.in.close();
+      }
+   }
+
+   /** Reader of a spooled string table. */
+   private static class Spool {
+      final DataInputStream in;
+      int id, length;
+      byte[] item = new byte[ 256 ];
+
+      Spool ( File file ) throws IOException {
+         in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+      }
+
+      boolean next () throws IOException {
+         try {
+            id = in.readInt();
+         } catch ( EOFException ex ) {
+            return false;
+         }
+         length = in.readInt();
+         if ( item.length < length ) item = new byte[ Math.max( length, item.length * 2 ) ];
+         in.readFully( item, 0, length );
+         return true;
+      }
+   }
+}
@@ -0,0 +1,126 @@
+package sheepy.util;
+
+/**
+ * Encode and decode one line of comma separated values.
+ *
+ * Fields containing comma, quote, or line break are quoted, and quotes in them are doubled.
+ * Other fields are written as is, including empty fields and leading or trailing spaces.
+ *
+ * Stateless and thread safe.  Parsing allocates only the result array and its strings.
+ */
+public final class CsvCodec {
+
+   private CsvCodec () {}
+
+   /**
+    * Parse a line into fields.  An empty line is one empty field.
+    * @throws IllegalArgumentException If the line is not well formed.
+    */
+   public static String[] parse ( CharSequence line ) {
+      final String str = line.toString();
+      final String[] result = new String[ countFields( str ) ];
+      final int len = str.length();
+      for ( int i = 0, f = 0 ; f < result.length ; f++ ) {
+         if ( i < len && str.charAt( i ) == '"' ) {
+            final int end = quotedEnd( str, i );
+            result[ f ] = unquote( str, i + 1, end - 1 );
+            i = end + 1;
+         } else {
+            final int end = unquotedEnd( str, i );
+            result[ f ] = str.substring( i, end );
+            i = end + 1;
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Encode fields into a new line.
+    */
+   public static StringBuilder build ( String[] fields ) {
+      int size = fields.length;
+      for ( String field : fields ) size += field.length();
+      return build( fields, new StringBuilder( size + 8 ) );
+   }
+
+   /**
+    * Append encoded fields to a buffer.
+    * @return The buffer.
+    */
+   public static StringBuilder build ( String[] fields, StringBuilder out ) {
+      for ( int f = 0 ; f < fields.length ; f++ ) {
+         if ( f > 0 ) out.append( ',' );
+         final String field = fields[ f ];
+         if ( ! needQuote( field ) ) {
+            out.append( field );
+            continue;
+         }
+         out.append( '"' );
+         int from = 0;
+         for ( int q ; ( q = field.indexOf( '"', from ) ) >= 0 ; from = q + 1 )
+            out.append( field, from, q + 1 ).append( '"' );
+         out.append( field, from, field.length() ).append( '"' );
+      }
+      return out;
+   }
+
+   private static boolean needQuote ( String field ) {
+      for ( int i = 0, len = field.length() ; i < len ; i++ )
+         switch ( field.charAt( i ) ) {
+            case ',': case '"': case '\r': case '\n':
+               return true;
+         }
+      return false;
+   }
+
+   // Validate the line and count its fields.
+   private static int countFields ( String str ) {
+      final int len = str.length();
+      int count = 1;
+      for ( int i = 0 ; ; count++ ) {
+         i = ( i < len && str.charAt( i ) == '"' ? quotedEnd( str, i ) : unquotedEnd( str, i ) );
+         if ( i >= len ) return count;
+         ++i; // Skip comma
+      }
+   }
+
+   // Position of the comma or line end after an unquoted field.
+   private static int unquotedEnd ( String str, int i ) {
+      for ( final int len = str.length() ; i < len ; i++ )
+         switch ( str.charAt( i ) ) {
+            case ',':
+               return i;
+            case '"': case '\r': case '\n':
+               throw new IllegalArgumentException( "Unexpected character at " + i + " of CSV line" );
+         }
+      return i;
+   }
+
+   // Position of the comma or line end after a quoted field that starts at i.
+   private static int quotedEnd ( String str, int i ) {
+      final int len = str.length();
+      for ( ++i ; i < len ; i++ ) {
+         if ( str.charAt( i ) != '"' ) continue;
+         if ( i + 1 < len && str.charAt( i + 1 ) == '"' ) {
+            ++i; // Escaped quote
+            continue;
+         }
+         if ( i + 1 < len && str.charAt( i + 1 ) != ',' )
+            throw new IllegalArgumentException( "Unexpected character at " + ( i + 1 ) + " of CSV line" );
+         return i + 1;
+      }
+      throw new IllegalArgumentException( "Unclosed quote in CSV line" );
+   }
+
+   private static String unquote ( String str, int from, int to ) {
+      int q = str.indexOf( '"', from );
+      if ( q < 0 || q >= to ) return str.substring( from, to );
+      final StringBuilder result = new StringBuilder( to - from - 1 );
+      do {
+         result.append( str, from, q + 1 ); // Keep one quote of the pair
+         from = q + 2;
+         q = str.indexOf( '"', from );
+      } while ( q >= 0 && q < to );
+      return result.append( str, from, to ).toString();
+   }
+}
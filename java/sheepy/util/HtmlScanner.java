@@ -0,0 +1,311 @@
+package sheepy.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Streaming html scanner that extracts the inner html of one element without building a document.
+ *
+ * The extracted html is serialised the way a browser's innerHTML does:
+ * lower case tag and attribute names, double quoted attributes, no self-closing slash,
+ * character references decoded, and only &amp;amp; &amp;lt; &amp;gt; &amp;nbsp; (and &amp;quot; in attributes) escaped.
+ * Comments, scripts and styles are copied as is.
+ * Well formed markup gives the same result as a browser; missing end tags are not inferred.
+ *
+ * Thread safe.  Each scan uses its own scanner instance.
+ */
+public final class HtmlScanner {
+
+   /**
+    * A start tag.  Names are in lower case; attribute values are decoded.
+    */
+   public static class Tag {
+      public final String name;
+      public final Map<String, String> attr = new LinkedHashMap<>();
+      public boolean selfClose;
+      Tag ( String name ) {
+         this.name = name;
+      }
+   }
+
+   private static final String[] VOID = { "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr" };
+   private static final Map<String, Character> ENTITIES = new HashMap<>( 64 );
+
+   static {
+      String[] names = {
+         "amp", "&", "lt", "<", "gt", ">", "quot", "\"", "apos", "'", "nbsp", "\u00A0",
+         "lsquo", "‘", "rsquo", "’", "ldquo", "“", "rdquo", "”", "sbquo", "‚", "bdquo", "„",
+         "ndash", "–", "mdash", "—", "hellip", "…", "bull", "•", "middot", "·", "times", "×", "divide", "÷",
+         "minus", "−", "plusmn", "±", "deg", "°", "frac12", "½", "frac14", "¼", "frac34", "¾",
+         "copy", "©", "reg", "®", "trade", "™", "sect", "§", "para", "¶", "dagger", "†", "Dagger", "‡",
+         "laquo", "«", "raquo", "»", "eacute", "é", "Eacute", "É", "egrave", "è", "aacute", "á", "agrave", "à",
+         "ouml", "ö", "uuml", "ü", "auml", "ä", "iuml", "ï", "ccedil", "ç", "ntilde", "ñ", "szlig", "ß" };
+      for ( int i = 0 ; i < names.length ; i += 2 )
+         ENTITIES.put( names[ i ], names[ i + 1 ].charAt( 0 ) );
+   }
+
+   private final Reader in;
+   private int peek = -2; // Pushed back char, -2 if none
+   private final StringBuilder out = new StringBuilder( 8192 );
+   private final StringBuilder buf = new StringBuilder( 256 );
+
+   private HtmlScanner ( Reader in ) {
+      this.in = in;
+   }
+
+   /**
+    * Scan a whole html document and return the inner html of the first element with given id.
+    *
+    * @param in Html source.  Should be buffered.  Not closed.
+    * @param id Element id to extract.
+    * @param onTag Called with every start tag of the document, for example to detect forms.  May be null.
+    * @return Trimmed inner html, or null if the element is not found or not closed.
+    */
+   public static String innerHtmlById ( Reader in, String id, Consumer<Tag> onTag ) throws IOException {
+      return new HtmlScanner( in ).scan( id, onTag );
+   }
+
+   private String scan ( String id, Consumer<Tag> onTag ) throws IOException {
+      String target = null; // Name of the element being extracted
+      int depth = 0;
+      boolean done = false;
+      for ( int c ; ( c = read() ) >= 0 ; ) {
+         final boolean capture = target != null;
+         if ( c != '<' ) {
+            if ( capture ) text( c );
+            continue;
+         }
+         c = read();
+         if ( c == '!' ) {
+            if ( read() == '-' && read() == '-' ) {
+               readUntil( "-->" );
+               if ( capture ) out.append( "<!--" ).append( buf ).append( "-->" );
+            } else
+               readUntil( ">" ); // Doctype or other declaration
+         } else if ( c == '?' ) {
+            readUntil( ">" );
+         } else if ( c == '/' ) {
+            String name = readName( read() );
+            readUntil( ">" );
+            if ( name.isEmpty() ) continue;
+            if ( capture ) {
+               if ( name.equals( target ) && --depth == 0 ) {
+                  target = null;
+                  done = true;
+               } else if ( ! isVoid( name ) )
+                  out.append( "</" ).append( name ).append( '>' );
+            }
+         } else if ( isLetter( c ) ) {
+            Tag tag = readTag( c );
+            if ( onTag != null ) onTag.accept( tag );
+            if ( capture ) {
+               serialise( tag );
+               if ( tag.name.equals( target ) && ! tag.selfClose && ! isVoid( tag.name ) ) ++depth;
+            } else if ( ! done && id.equals( tag.attr.get( "id" ) ) && ! isVoid( tag.name ) && ! tag.selfClose ) {
+               target = tag.name;
+               depth = 1;
+            }
+            if ( tag.name.equals( "script" ) || tag.name.equals( "style" ) ) { // Raw text
+               readUntil( "</" + tag.name );
+               if ( capture ) out.append( buf ).append( "</" ).append( tag.name ).append( '>' );
+               readUntil( ">" );
+            }
+         } else {
+            if ( capture ) text( '<' );
+            unread( c );
+         }
+      }
+      return done ? out.toString().trim() : null;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Reading
+   /////////////////////////////////////////////////////////////////////////////
+
+   private int read () throws IOException {
+      if ( peek != -2 ) {
+         int c = peek;
+         peek = -2;
+         return c;
+      }
+      return in.read();
+   }
+
+   private void unread ( int c ) {
+      peek = c;
+   }
+
+   private static boolean isLetter ( int c ) {
+      return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' );
+   }
+
+   private static boolean isSpace ( int c ) {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+   }
+
+   private static boolean isVoid ( String name ) {
+      for ( String e : VOID ) if ( e.equals( name ) ) return true;
+      return false;
+   }
+
+   /**
+    * Read into buf until given terminator, case insensitive.  The terminator is consumed but not kept.
+    */
+   private void readUntil ( String end ) throws IOException {
+      buf.setLength( 0 );
+      final int len = end.length();
+      for ( int c ; ( c = read() ) >= 0 ; ) {
+         buf.append( (char) c );
+         final int start = buf.length() - len;
+         if ( start >= 0 && buf.substring( start ).equalsIgnoreCase( end ) ) {
+            buf.setLength( start );
+            return;
+         }
+      }
+   }
+
+   private String readName ( int c ) throws IOException {
+      StringBuilder name = new StringBuilder( 16 );
+      while ( c >= 0 && ! isSpace( c ) && c != '>' && c != '/' && c != '=' ) {
+         name.append( Character.toLowerCase( (char) c ) );
+         c = read();
+      }
+      unread( c );
+      return name.toString();
+   }
+
+   private Tag readTag ( int c ) throws IOException {
+      Tag tag = new Tag( readName( c ) );
+      while ( ( c = read() ) >= 0 ) {
+         if ( isSpace( c ) ) continue;
+         if ( c == '>' ) break;
+         if ( c == '/' ) {
+            tag.selfClose = true;
+            continue;
+         }
+         tag.selfClose = false;
+         String name = readName( c );
+         if ( name.isEmpty() ) { // Stray '=' or quote; skip it
+            read();
+            continue;
+         }
+         do c = read(); while ( isSpace( c ) );
+         if ( c != '=' ) {
+            unread( c );
+            tag.attr.putIfAbsent( name, "" );
+            continue;
+         }
+         do c = read(); while ( isSpace( c ) );
+         StringBuilder value = new StringBuilder( 32 );
+         if ( c == '"' || c == '\'' ) {
+            final int quote = c;
+            while ( ( c = read() ) >= 0 && c != quote ) value.append( (char) c );
+         } else {
+            while ( c >= 0 && ! isSpace( c ) && c != '>' ) {
+               value.append( (char) c );
+               c = read();
+            }
+            unread( c );
+         }
+         tag.attr.putIfAbsent( name, decode( value ) );
+      }
+      return tag;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Writing
+   /////////////////////////////////////////////////////////////////////////////
+
+   private void serialise ( Tag tag ) {
+      out.append( '<' ).append( tag.name );
+      for ( Map.Entry<String, String> e : tag.attr.entrySet() ) {
+         out.append( ' ' ).append( e.getKey() ).append( "=\"" );
+         String value = e.getValue();
+         for ( int i = 0, len = value.length() ; i < len ; i++ ) {
+            char c = value.charAt( i );
+            switch ( c ) {
+               case '&'     : out.append( "&amp;" ); break;
+               case '"'     : out.append( "&quot;" ); break;
+               case '\u00A0' : out.append( "&nbsp;" ); break;
+               default      : out.append( c );
+            }
+         }
+         out.append( '"' );
+      }
+      out.append( '>' );
+   }
+
+   private void text ( int c ) throws IOException {
+      if ( c == '&' && ( c = entity() ) < 0 ) { // Not a reference.  Keep as text.
+         out.append( "&amp;" );
+         for ( int i = 0 ; i < buf.length() ; i++ ) escape( buf.charAt( i ) );
+         return;
+      }
+      escape( c );
+   }
+
+   private void escape ( int c ) {
+      switch ( c ) {
+         case '&'     : out.append( "&amp;" ); break;
+         case '<'     : out.append( "&lt;" ); break;
+         case '>'     : out.append( "&gt;" ); break;
+         case '\u00A0' : out.append( "&nbsp;" ); break;
+         default      : out.appendCodePoint( c );
+      }
+   }
+
+   /**
+    * Read a character reference after '&amp;'.
+    * @return Decoded code point, or -1 if it is not a known reference, in which case buf has the chars read.
+    */
+   private int entity () throws IOException {
+      buf.setLength( 0 );
+      int c;
+      while ( ( c = read() ) >= 0 && buf.length() < 10 && ( isLetter( c ) || Character.isDigit( c ) || c == '#' ) )
+         buf.append( (char) c );
+      if ( c == ';' ) {
+         int code = decodeRef( buf );
+         if ( code >= 0 ) return code;
+         buf.append( ';' );
+      } else
+         unread( c );
+      return -1;
+   }
+
+   private static int decodeRef ( CharSequence ref ) {
+      if ( ref.length() > 1 && ref.charAt( 0 ) == '#' ) try {
+         boolean hex = ref.charAt( 1 ) == 'x' || ref.charAt( 1 ) == 'X';
+         int code = Integer.parseInt( ref.subSequence( hex ? 2 : 1, ref.length() ).toString(), hex ? 16 : 10 );
+         return Character.isValidCodePoint( code ) && code > 0 ? code : 0xFFFD;
+      } catch ( NumberFormatException ex ) {
+         return -1;
+      }
+      Character result = ENTITIES.get( ref.toString() );
+      return result == null ? -1 : result;
+   }
+
+   private static String decode ( CharSequence value ) {
+      StringBuilder result = new StringBuilder( value.length() );
+      for ( int i = 0, len = value.length() ; i < len ; i++ ) {
+         char c = value.charAt( i );
+         int end = c == '&' ? indexOf( value, ';', i ) : -1;
+         int code = end > i + 1 && end - i <= 11 ? decodeRef( value.subSequence( i + 1, end ) ) : -1;
+         if ( code >= 0 ) {
+            result.appendCodePoint( code );
+            i = end;
+         } else
+            result.append( c );
+      }
+      return result.toString();
+   }
+
+   private static int indexOf ( CharSequence text, char c, int from ) {
+      for ( int i = from, len = text.length() ; i < len ; i++ )
+         if ( text.charAt( i ) == c ) return i;
+      return -1;
+   }
+}
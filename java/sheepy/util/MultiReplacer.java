@@ -0,0 +1,179 @@
+package sheepy.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replace multiple literal strings in one scan, using an Aho-Corasick automaton.
+ *
+ * Matches are leftmost-longest and never overlap; scan restarts after each replacement.
+ * This gives the same result as a chain of String.replace, provided that
+ * no pattern overlaps another and no replacement creates a new match.
+ *
+ * Immutable and thread safe.
+ */
+public final class MultiReplacer {
+
+   private final String[] from;
+   private final String[] to;
+
+   // Trie.  Children of a node are sorted by char.
+   private final char[][] keys;
+   private final int[][] child;
+   private final int[] fail;
+   private final int[] depth;
+   private final int[] pattern; // Pattern ending at this node, or -1
+   private final int[] outLen;  // Length of longest pattern that is a suffix of this node, or 0
+
+   /**
+    * @param pairs Pattern and replacement pairs: from, to, from, to...
+    */
+   public MultiReplacer ( String ... pairs ) {
+      if ( pairs.length % 2 != 0 ) throw new IllegalArgumentException( "Patterns and replacements must be in pairs" );
+      final int count = pairs.length / 2;
+      from = new String[ count ];
+      to = new String[ count ];
+
+      // Build trie
+      List<StringBuilder> k = new ArrayList<>();
+      List<List<Integer>> c = new ArrayList<>();
+      List<Integer> d = new ArrayList<>(), p = new ArrayList<>();
+      k.add( new StringBuilder() ); c.add( new ArrayList<>() ); d.add( 0 ); p.add( -1 );
+      for ( int i = 0 ; i < count ; i++ ) {
+         from[ i ] = pairs[ i * 2 ];
+         to[ i ] = pairs[ i * 2 + 1 ];
+         if ( from[ i ] == null || from[ i ].isEmpty() || to[ i ] == null ) throw new IllegalArgumentException( "Pattern must not be empty" );
+         int node = 0;
+         for ( char ch : from[ i ].toCharArray() ) {
+            int pos = k.get( node ).indexOf( String.valueOf( ch ) ), next;
+            if ( pos < 0 ) {
+               next = k.size();
+               k.get( node ).append( ch );
+               c.get( node ).add( next );
+               k.add( new StringBuilder() ); c.add( new ArrayList<>() ); d.add( d.get( node ) + 1 ); p.add( -1 );
+            } else
+               next = c.get( node ).get( pos );
+            node = next;
+         }
+         if ( p.get( node ) >= 0 ) throw new IllegalArgumentException( "Duplicate pattern " + from[ i ] );
+         p.set( node, i );
+      }
+
+      final int size = k.size();
+      keys = new char[ size ][];
+      child = new int[ size ][];
+      depth = new int[ size ];
+      pattern = new int[ size ];
+      for ( int n = 0 ; n < size ; n++ ) {
+         final String key = k.get( n ).toString();
+         final Integer[] sorted = new Integer[ key.length() ];
+         for ( int i = 0 ; i < sorted.length ; i++ ) sorted[ i ] = i;
+         Arrays.sort( sorted, ( a, b ) -> key.charAt( a ) - key.charAt( b ) );
+         keys[ n ] = new char[ sorted.length ];
+         child[ n ] = new int[ sorted.length ];
+         for ( int i = 0 ; i < sorted.length ; i++ ) {
+            keys[ n ][ i ] = key.charAt( sorted[ i ] );
+            child[ n ][ i ] = c.get( n ).get( sorted[ i ] );
+         }
+         depth[ n ] = d.get( n );
+         pattern[ n ] = p.get( n );
+      }
+
+      // Build failure links breadth first
+      fail = new int[ size ];
+      outLen = new int[ size ];
+      int[] queue = new int[ size ];
+      int head = 0, tail = 0;
+      queue[ tail++ ] = 0;
+      while ( head < tail ) {
+         final int node = queue[ head++ ];
+         outLen[ node ] = pattern[ node ] >= 0 ? depth[ node ] : outLen[ fail[ node ] ];
+         for ( int i = 0 ; i < keys[ node ].length ; i++ ) {
+            final int next = child[ node ][ i ];
+            fail[ next ] = node == 0 ? 0 : next( fail[ node ], keys[ node ][ i ] );
+            queue[ tail++ ] = next;
+         }
+      }
+   }
+
+   public int size () {
+      return from.length;
+   }
+
+   public String from ( int index ) {
+      return from[ index ];
+   }
+
+   public String to ( int index ) {
+      return to[ index ];
+   }
+
+   /**
+    * Find the longest pattern that starts at given position.
+    *
+    * @return Index of pattern, or -1 if none matches.
+    */
+   public int matchAt ( CharSequence text, int pos ) {
+      int node = 0, result = -1;
+      for ( int len = text.length() ; pos < len ; pos++ ) {
+         node = goTo( node, text.charAt( pos ) );
+         if ( node < 0 ) break;
+         if ( pattern[ node ] >= 0 ) result = pattern[ node ];
+      }
+      return result;
+   }
+
+   /**
+    * Replace all patterns in text.
+    *
+    * @return Result string.  Same instance if text is a String with no match.
+    */
+   public String replace ( CharSequence text ) {
+      StringBuilder result = replace( text, null );
+      return result == null ? text.toString() : result.toString();
+   }
+
+   /**
+    * Replace all patterns in text and append the result to a buffer.
+    *
+    * @param out Output buffer.  If null, a buffer is created on first match.
+    * @return Output buffer, or null if out is null and nothing matches.
+    */
+   public StringBuilder replace ( CharSequence text, StringBuilder out ) {
+      final int len = text.length();
+      int state = 0, copied = 0, start = -1; // start = Leftmost start of matches found so far
+      for ( int i = 0 ; ; ) {
+         if ( i < len ) {
+            state = next( state, text.charAt( i++ ) );
+            final int found = outLen[ state ];
+            if ( found > 0 && ( start < 0 || i - found < start ) ) start = i - found;
+            // Wait if a match that starts earlier may still complete
+            if ( start < 0 || i - depth[ state ] < start ) continue;
+         } else if ( start < 0 )
+            break;
+         final int p = matchAt( text, start );
+         if ( out == null ) out = new StringBuilder( len + 16 );
+         out.append( text, copied, start ).append( to[ p ] );
+         i = copied = start + from[ p ].length();
+         state = 0;
+         start = -1;
+      }
+      if ( out != null ) out.append( text, copied, len );
+      return out;
+   }
+
+   private int goTo ( int node, char ch ) {
+      final int pos = Arrays.binarySearch( keys[ node ], ch );
+      return pos < 0 ? -1 : child[ node ][ pos ];
+   }
+
+   private int next ( int node, char ch ) {
+      while ( true ) {
+         final int next = goTo( node, ch );
+         if ( next >= 0 ) return next;
+         if ( node == 0 ) return 0;
+         node = fail[ node ];
+      }
+   }
+}
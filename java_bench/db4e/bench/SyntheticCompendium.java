@@ -0,0 +1,169 @@
+package db4e.bench;
+
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import sheepy.util.Utils;
+
+/**
+ * Generate an offline compendium with the same categories, fields and html shape as the real one.
+ * Same seed always gives the same data.
+ */
+public class SyntheticCompendium {
+
+   // Same categories and fields as a new database.
+   public static final String[][] CATEGORIES = {
+      { "Race", "DescriptionAttribute,Size,SourceBook" },
+      { "Background", "Type,Campaign,Skills,SourceBook" },
+      { "Theme", "SourceBook" },
+      { "Class", "RoleName,PowerSourceText,KeyAbilities,SourceBook" },
+      { "ParagonPath", "Prerequisite,SourceBook" },
+      { "EpicDestiny", "Prerequisite,SourceBook" },
+      { "Feat", "TierName,SourceBook" },
+      { "Power", "ClassName,Level,ActionType,SourceBook" },
+      { "Ritual", "Level,ComponentCost,Price,KeySkillDescription,SourceBook" },
+      { "Companion", "Type,SourceBook" },
+      { "Item", "Category,Level,Cost,Rarity,SourceBook" },
+      { "Monster", "Level,CombatRole,GroupRole,SourceBook" },
+      { "Trap", "Type,GroupRole,Level,SourceBook" },
+      { "Terrain", "Type,SourceBook" },
+      { "Poison", "Level,Cost,SourceBook" },
+      { "Disease", "Level,SourceBook" },
+      { "Deity", "Alignment,SourceBook" },
+      { "Glossary", "Category,Type,SourceBook" },
+   };
+
+   private static final String[] BOOKS = { "Player's Handbook", "Player's Handbook 2", "Dungeon Master's Guide", "Monster Manual", "Adventurer's Vault", "Arcane Power", "Martial Power", "Dragon Magazine 380", "Dungeon Magazine 170" };
+   private static final String[] WORDS = { "arcane", "blade", "fire", "shadow", "storm", "guardian", "ancient", "radiant", "frost", "thunder", "swift", "iron", "silver", "spirit", "wild", "dark" };
+   private static final String[] ABILITIES = { "Strength", "Constitution", "Dexterity", "Intelligence", "Wisdom", "Charisma" };
+   private static final String[] POWER_TYPES = { "atwillpower", "encounterpower", "dailypower" };
+   private static final String[] ITEM_TYPES = { "Armor", "Weapon", "Implement", "Arms", "Feet", "Hands", "Head", "Neck", "Waist", "Wondrous", "Consumable" };
+
+   private final Random rng;
+
+   public SyntheticCompendium ( long seed ) {
+      rng = new Random( seed );
+   }
+
+   /**
+    * Generate all categories.
+    * @param size Number of entries per category.
+    */
+   public List<Category> generate ( int size ) {
+      List<Category> result = new ArrayList<>( CATEGORIES.length );
+      for ( String[] def : CATEGORIES )
+         result.add( generate( def[0], def[1].split( "," ), size ) );
+      return result;
+   }
+
+   /**
+    * Generate one category.
+    */
+   public Category generate ( String id, int size ) {
+      for ( String[] def : CATEGORIES )
+         if ( def[0].equals( id ) )
+            return generate( def[0], def[1].split( "," ), size );
+      throw new IllegalArgumentException( "Unknown category " + id );
+   }
+
+   private Category generate ( String id, String[] fields, int size ) {
+      Category category = new Category( id, id, fields );
+      for ( int i = 1 ; i <= size ; i++ ) {
+         String name = name( i );
+         Entry entry = new Entry( id.toLowerCase() + ".aspx?id=" + i, name, fieldValues( id, fields, i ) );
+         entry.contentDownloaded = true;
+         entry.content = content( id, name, entry.fields, i );
+         category.entries.add( entry );
+      }
+      category.total_entry.set( size );
+      category.downloaded_entry.set( size );
+      return category;
+   }
+
+   private String name ( int i ) {
+      return Utils.ucfirst( word() ) + " " + Utils.ucfirst( word() ) + " " + i;
+   }
+
+   private String[] fieldValues ( String id, String[] fields, int i ) {
+      String[] result = new String[ fields.length ];
+      for ( int f = 0 ; f < fields.length ; f++ ) {
+         switch ( fields[ f ] ) {
+            case "SourceBook" : result[ f ] = BOOKS[ i % BOOKS.length ]; break;
+            case "Level"      : result[ f ] = String.valueOf( 1 + i % 30 ); break;
+            case "Cost"       :
+            case "Price"      : result[ f ] = ( ( 1 + i % 30 ) * 125 ) + " gp"; break;
+            case "Size"       : result[ f ] = "Medium"; break;
+            case "Category"   : result[ f ] = id.equals( "Item" ) ? ITEM_TYPES[ i % ITEM_TYPES.length ] : "Rules"; break;
+            case "Rarity"     : result[ f ] = i % 3 == 0 ? "Uncommon" : "Common"; break;
+            case "TierName"   : result[ f ] = i % 3 == 0 ? "Paragon" : "Heroic"; break;
+            case "ClassName"  : result[ f ] = "Wizard"; break;
+            case "ActionType" : result[ f ] = "Standard Action"; break;
+            case "KeyAbilities" : result[ f ] = ABILITIES[ i % 6 ] + ", " + ABILITIES[ ( i + 1 ) % 6 ]; break;
+            case "Alignment"  : result[ f ] = "Good"; break;
+            case "CombatRole" : result[ f ] = "Soldier"; break;
+            case "GroupRole"  : result[ f ] = i % 5 == 0 ? "Elite" : "Standard"; break;
+            case "Type"       : result[ f ] = Utils.ucfirst( word() ); break;
+            default           : result[ f ] = i % 4 == 0 ? "" : Utils.ucfirst( word() ) + ", " + word();
+         }
+      }
+      return result;
+   }
+
+   private String content ( String id, String name, String[] fields, int i ) {
+      StringBuilder html = new StringBuilder( 2048 );
+      switch ( id ) {
+         case "Power" :
+            String type = POWER_TYPES[ i % 3 ];
+            html.append( "<h1 class=\"" ).append( type ).append( "\">" ).append( name ).append( "<span class=\"level\">Wizard Attack " ).append( fields[ 1 ] ).append( "</span></h1>" );
+            html.append( "<p class=\"flavor\"><i>" ).append( sentence( 12 ) ).append( "</i></p>" );
+            html.append( "<p class=\"powerstat\"><b>" ).append( type.startsWith( "at" ) ? "At-Will" : type.startsWith( "en" ) ? "Encounter" : "Daily" );
+            html.append( "</b>&nbsp;&nbsp;&nbsp;&nbsp;<img src=\"images/bullet.gif\" alt=\"\"> <b>Arcane</b>, <b>Fire</b>, <b>Implement</b><br/>" );
+            html.append( "<b>Standard Action</b>&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;<b>Area</b> burst 1 within 10 squares</p>" );
+            html.append( "<p class=\"powerstat\"><b>Target</b>: Each creature in burst</p>" );
+            html.append( "<p class=\"powerstat\"><b>Attack</b>: " ).append( ABILITIES[ i % 6 ] ).append( " vs. Reflex</p>" );
+            html.append( "<p class=\"flavor\"><b>Hit</b>: 2d6 + " ).append( ABILITIES[ i % 6 ] ).append( " modifier fire damage. " ).append( sentence( 20 ) ).append( "</p>" );
+            break;
+         case "Item" :
+            html.append( "<h1 class=\"mihead\">" ).append( name ).append( "<span class=\"milevel\">Level " ).append( fields[ 1 ] ).append( "</span></h1>" );
+            html.append( "<p class=\"miflavor\">" ).append( sentence( 14 ) ).append( "</p>" );
+            html.append( "<table class=\"magicitem\"><tbody><tr><td class=\"mic1\">Lvl " ).append( fields[ 1 ] ).append( "</td><td class=\"mic2\">+1</td><td class=\"mic3\" align=\"right\">" ).append( fields[ 2 ] ).append( "</td></tr></tbody></table>" );
+            html.append( "<p class=\"mistat indent1\"><b>" ).append( fields[ 0 ] ).append( "</b>: " ).append( ITEM_TYPES[ i % ITEM_TYPES.length ] ).append( "</p>" );
+            html.append( "<p class=\"mistat indent1\"><b>Property</b>: " ).append( sentence( 18 ) ).append( "</p>" );
+            html.append( "<p class=\"mistat indent1\"><b>Power</b> (<b>Daily</b>" ).append( " <img src=\"images/bullet.gif\" alt=\"\"> " ).append( "<b>Healing</b>): Minor Action. " ).append( sentence( 16 ) ).append( "</p>" );
+            break;
+         case "Monster" :
+            html.append( "<h1 class=\"monster\">" ).append( name ).append( "<br/><span class=\"type\">Medium natural humanoid</span><br/><span class=\"level\">Level " ).append( fields[ 0 ] ).append( " " ).append( fields[ 1 ] ).append( "<br/>XP " ).append( 100 * ( 1 + i % 30 ) ).append( "</span></h1>" );
+            html.append( "<table class=\"bodytable\"><tbody><tr><td><b>HP</b> " ).append( 20 + i % 200 ).append( "; <b>Bloodied</b> ").append( 10 + i % 100 ).append( "</td><td class=\"rightalign\"><b>Initiative</b> +" ).append( i % 12 ).append( "</td></tr></tbody></table>" );
+            html.append( "<h2>Standard Actions</h2><p class=\"flavor alt\"><img src=\"http://www.wizards.com/dnd/images/symbol/S2.gif\"> <b>Claw</b> <img src=\"http://www.wizards.com/dnd/images/symbol/x.gif\"> <b>At-Will</b></p>" );
+            html.append( "<p class=\"flavorIndent\">Attack: Melee 1 (one creature); +" ).append( 5 + i % 25 ).append( " vs. AC</p><p class=\"flavorIndent\">Hit: 2d8 + 5 damage. " ).append( sentence( 12 ) ).append( "</p>" );
+            html.append( "<p class=\"flavor\"><b>Str</b> 18 (+5) &nbsp;&nbsp;&nbsp;&nbsp; <b>Dex</b> 14 (+3) &nbsp;&nbsp;&nbsp;&nbsp; <b>Wis</b> 12 (+2)</p>" );
+            break;
+         default :
+            html.append( "<h1 class=\"player\">" ).append( name ).append( "</h1>" );
+            html.append( "<p class=\"flavor\">" ).append( sentence( 16 ) ).append( "</p>" );
+            for ( int f = 0 ; f < fields.length - 1 ; f++ )
+               html.append( "<p class=\"flavor\"><b>" ).append( id.equals( "Class" ) && f == 2 ? "Key Abilities" : fields[ f ] ).append( "</b>: " ).append( fields[ f ] ).append( "</p>" );
+            html.append( "<p class=\"flavor\">" ).append( sentence( 40 ) ).append( "</p>" );
+      }
+      html.append( "<p class=\"publishedIn\">Published in <a href=\"http://www.wizards.com/default.asp?x=products/dndacc/217367200\" target=\"_new\">" );
+      html.append( fields[ fields.length - 1 ] ).append( "</a>, page " ).append( 1 + i % 220 ).append( "." );
+      if ( i % 7 == 0 )
+         html.append( "<br/>Update (4/" ).append( 1 + i % 28 ).append( "/2009)<br/> " ).append( sentence( 8 ) );
+      html.append( "</p>" );
+      return html.toString();
+   }
+
+   private String sentence ( int words ) {
+      StringBuilder text = new StringBuilder( words * 8 );
+      text.append( Utils.ucfirst( word() ) );
+      for ( int i = 1 ; i < words ; i++ )
+         text.append( i % 9 == 0 ? ", " : " " ).append( word() );
+      return text.append( '.' ).toString();
+   }
+
+   private String word () {
+      return WORDS[ rng.nextInt( WORDS.length ) ];
+   }
+}
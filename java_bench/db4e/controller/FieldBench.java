@@ -0,0 +1,70 @@
+package db4e.controller;
+
+import db4e.bench.SyntheticCompendium;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sheepy.util.CsvCodec;
+
+/**
+ * Entry field encoding, csv (databases before DbAbstraction.VERSION) and binary, one entry per operation.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class FieldBench {
+
+   private String[][] fields;
+   private String[] lines;
+   private byte[][] blobs;
+   private int next;
+
+   @Setup public void setup () {
+      List<String[]> all = new ArrayList<>();
+      for ( Category category : new SyntheticCompendium( 1 ).generate( 100 ) )
+         for ( Entry entry : category.entries )
+            all.add( entry.fields );
+      fields = all.toArray( new String[ all.size() ][] );
+      lines = new String[ fields.length ];
+      blobs = new byte[ fields.length ][];
+      for ( int i = 0 ; i < fields.length ; i++ ) {
+         lines[ i ] = CsvCodec.build( fields[ i ] ).toString();
+         blobs[ i ] = FieldCodec.encode( fields[ i ] );
+      }
+   }
+
+   @Benchmark public String[] parseCsv () {
+      if ( ++next >= lines.length ) next = 0;
+      return CsvCodec.parse( lines[ next ] );
+   }
+
+   @Benchmark public StringBuilder buildCsv () {
+      if ( ++next >= fields.length ) next = 0;
+      return CsvCodec.build( fields[ next ] );
+   }
+
+   @Benchmark public String[] decodeBlob () {
+      if ( ++next >= blobs.length ) next = 0;
+      return FieldCodec.decode( blobs[ next ] );
+   }
+
+   @Benchmark public byte[] encodeBlob () {
+      if ( ++next >= fields.length ) next = 0;
+      return FieldCodec.encode( fields[ next ] );
+   }
+}
@@ -0,0 +1,62 @@
+package db4e.converter;
+
+import db4e.bench.SyntheticCompendium;
+import db4e.data.Category;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Html normalisation and fulltext extraction, per category, one entry per operation.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ConvertBench {
+
+   @Param({ "Race", "Background", "Theme", "Class", "ParagonPath", "EpicDestiny", "Feat", "Power", "Ritual",
+            "Companion", "Item", "Monster", "Trap", "Poison", "Disease", "Deity", "Glossary" })
+   public String category;
+
+   @Param( "500" )
+   public int size;
+
+   private Converter converter;
+   private String[] content;
+   private String[] data;
+   private int next;
+
+   @Setup public void setup () {
+      Category cat = new SyntheticCompendium( 1 ).generate( category, size );
+      converter = Convert.getConverter( cat );
+      converter.initialise();
+      content = new String[ size ];
+      data = new String[ size ];
+      for ( int i = 0 ; i < size ; i++ ) {
+         content[ i ] = cat.entries.get( i ).content;
+         data[ i ] = converter.normaliseData( content[ i ] );
+      }
+   }
+
+   @Benchmark public String normaliseData () {
+      if ( ++next >= size ) next = 0;
+      return converter.normaliseData( content[ next ] );
+   }
+
+   @Benchmark public String textData () {
+      if ( ++next >= size ) next = 0;
+      return converter.textData( data[ next ] );
+   }
+}
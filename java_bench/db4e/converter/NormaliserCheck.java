@@ -0,0 +1,96 @@
+package db4e.converter;
+
+import db4e.bench.SyntheticCompendium;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Check that DataNormaliser gives the same result as Converter.normaliseDataByRegex.
+ *
+ * Every entry of the synthetic compendium must match without fallback.
+ * Random documents, assembled from compendium markup and edge cases, must match with or without fallback.
+ * Real data is checked by export in debug mode, which compares every entry.
+ *
+ * Arguments: [seed] [documents]
+ */
+public class NormaliserCheck {
+
+   // Document pieces: compendium markup, and edge cases of the old regex rules.
+   private static final String[] PIECES = {
+      "<img src=\"images/bullet.gif\" alt=\"\">", "<img src=\"http://www.wizards.com/dnd/images/symbol/x.gif\">",
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/S2.gif\">", "<img src=\"http://www.wizards.com/dnd/images/symbol/Z1.gif\">",
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/aura.png\" align=\"top\">", "<img src=\"http://www.wizards.com/dnd/images/symbol/aura.png\">",
+      "<img src=\"http://www.wizards.com/dnd/images/symbol/6a.gif\">", "<img src=\"other.gif\">", "<img ",
+      "&nbsp;", "&nbsp", "<br/>", "<br />", "<br>", "</br>", " ", "  ", "   ", "’", "“’", "\n", "\n,", "\n.", ".\n", ",", ".",
+      "<p class=\"flavor\">", "<p class=\"flav or\">", "<p class=\"a/b\">", "<p class=\"it's\">", "<p class=\"\">", "<td class=\"x\" colspan=\"2\">",
+      "<td class=\"x\" colspan=\"2 3\">", "<span class=x>", "<h1 class=\"player\">", "</h1>", "<p>", "</p>", "<b>", "</b>", "<i>", "</i>", "<bx>", "</bxy>", "</b >",
+      "<table>", "</table>", "<tbody>", "</tbody>", "<tbody class=\"x\">", "<tr>", "</tr>", "<td>", "</td>", "<tdx>", "<track>", "</t>",
+      "<a href=\"\">", "<a href=\"http://www.wizards.com/dndinsider/compendium/power.aspx?id=1\">", "<a target=\"_new\" href=\"http://ww2.wizards.com/dnd/insider/item.aspx?fid=21&amp;ftype=3\">",
+      "<a href=\"http://www.wizards.com/x\" target=\"_new\">", "<a href=\"http://example.com/\">", "</a>", "<a>", "<a name=\"x\">",
+      "text", "Hit", "x", "a < b", "a > b", "<5", "<", ">", "\"", "'", "/", "=", "<p\nclass=\"x\">", "<p class=\"x\ny\">", "<!-- c -->",
+      "<div id=\"a\" class=\"b\">", "</div>", "<p class=\"a\" id=\"b\" x=\"c\">", "<p  class=\"a\">", "<p class='a'>", "<p class=\"a>b\">",
+   };
+
+   // Pieces that always go to fallback, left out of the second round so that the single pass is exercised.
+   private static final String[] UNSUPPORTED = { "<", "\"", "<5", "<img ", "<p class=\"a>b\">", "<!-- c -->" };
+
+   public static void main ( String[] args ) {
+      final long seed = args.length > 0 ? Long.parseLong( args[0] ) : 1;
+      final int count = args.length > 1 ? Integer.parseInt( args[1] ) : 300_000;
+      final Converter converter = new Converter( new Category( "Glossary", "Glossary", new String[]{ "SourceBook" } ) );
+      final int[] fallback = { 0 };
+      final DataNormaliser normaliser = new DataNormaliser( ( data ) -> {
+         ++fallback[0];
+         return converter.normaliseDataByRegex( data );
+      } );
+      int entries = 0, mismatch = 0;
+
+      for ( Category category : new SyntheticCompendium( seed ).generate( 500 ) )
+         for ( Entry entry : category.entries ) {
+            ++entries;
+            if ( ! check( converter, normaliser, entry.content ) ) ++mismatch;
+         }
+      System.out.printf( "Synthetic compendium: %d entries, %d mismatch, %d fallback%n", entries, mismatch, fallback[0] );
+      if ( fallback[0] > 0 ) ++mismatch; // Compendium markup must not need fallback
+
+      final List<String> supported = new ArrayList<>( Arrays.asList( PIECES ) );
+      supported.removeAll( Arrays.asList( UNSUPPORTED ) );
+      final Random rng = new Random( seed );
+      mismatch += random( "Random documents", PIECES, count / 2, rng, converter, normaliser, fallback );
+      mismatch += random( "Random supported documents", supported.toArray( new String[ supported.size() ] ), count / 2, rng, converter, normaliser, fallback );
+
+      if ( mismatch > 0 ) throw new IllegalStateException( "DataNormaliser differs from regex normalisation." );
+   }
+
+   private static int random ( String name, String[] pieces, int count, Random rng, Converter converter, DataNormaliser normaliser, int[] fallback ) {
+      final StringBuilder doc = new StringBuilder( 1024 );
+      int mismatch = 0;
+      fallback[0] = 0;
+      for ( int i = 0 ; i < count ; i++ ) {
+         doc.setLength( 0 );
+         for ( int len = 1 + rng.nextInt( 25 ) ; len > 0 ; len-- )
+            doc.append( pieces[ rng.nextInt( pieces.length ) ] );
+         if ( ! check( converter, normaliser, doc.toString() ) ) ++mismatch;
+      }
+      System.out.printf( "%s: %d documents, %d mismatch, %d fallback%n", name, count, mismatch, fallback[0] );
+      return mismatch;
+   }
+
+   private static int shown;
+
+   private static boolean check ( Converter converter, DataNormaliser normaliser, String data ) {
+      final String expected = converter.normaliseDataByRegex( data ), actual = normaliser.normalise( data );
+      if ( expected.equals( actual ) ) return true;
+      if ( ++shown <= 10 )
+         System.out.printf( "Mismatch%n  Input    %s%n  Regex    %s%n  Normaliser %s%n", escape( data ), escape( expected ), escape( actual ) );
+      return false;
+   }
+
+   private static String escape ( String text ) {
+      return text.replace( "\n", "\\n" );
+   }
+}
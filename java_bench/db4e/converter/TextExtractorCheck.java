@@ -0,0 +1,93 @@
+package db4e.converter;
+
+import db4e.bench.SyntheticCompendium;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.util.Random;
+
+/**
+ * Check that TextExtractor gives the same result as Converter.textDataByRegex.
+ *
+ * Every normalised entry of the synthetic compendium must match without fallback.
+ * Random documents, assembled from normalised markup and edge cases, must match with or without fallback,
+ * both with the default extractor and with the item set exclusion hook.
+ * Real data is checked by export in debug mode, which compares every entry.
+ *
+ * Arguments: [seed] [documents]
+ */
+public class TextExtractorCheck {
+
+   // Document pieces: normalised compendium markup, and edge cases of the old regex rules.
+   private static final String[] PIECES = {
+      "<h1 class=atwillpower>", "<h1 class=dailypower>", "<h1 class=xpower>", "<h1 class=mihead>", "<h1 class=miset>", "</h1>",
+      "<p class=flavor><i>", "Some flavour", "</i></p>", "<p class=miflavor>", "</p>", "<p class=flavor><i>a>b</i></p>",
+      "<p class=publishedIn>Published in", " PHB, page 5.", "<br>", "Update (4/12/2009)", "<br>Removed (13/1/2010)<br>",
+      "<br> (1/1/2008)<br>", "Errata text", "5/2/2011", " ", "  ", "\t", " ", "&amp;", "&gt;", "gt;", "&", "<", "<>", "< b>", ">",
+      "<b>", "</b>", "<i>", "x", "Power", "-", "<td class=\"x y\">", "<a href=x>", "\n", "\r\n",
+   };
+
+   public static void main ( String[] args ) {
+      final long seed = args.length > 0 ? Long.parseLong( args[0] ) : 1;
+      final int count = args.length > 1 ? Integer.parseInt( args[1] ) : 300_000;
+      final int[] fallback = { 0 };
+      int entries = 0, mismatch = 0;
+
+      for ( Category category : new SyntheticCompendium( seed ).generate( 500 ) ) {
+         final Converter converter = Convert.getConverter( category );
+         if ( converter == null ) continue; // Not exported
+         converter.initialise();
+         for ( Entry entry : category.entries ) {
+            ++entries;
+            if ( ! check( converter, converter.normaliseData( entry.content ), fallback ) ) ++mismatch;
+         }
+      }
+      System.out.printf( "Synthetic compendium: %d entries, %d mismatch, %d fallback%n", entries, mismatch, fallback[0] );
+      if ( fallback[0] > 0 ) ++mismatch; // Compendium markup must not need fallback
+
+      final Random rng = new Random( seed );
+      mismatch += random( "Random documents", new Converter( new Category( "Glossary", "Glossary", new String[]{ "SourceBook" } ) ), count / 2, rng, fallback );
+      mismatch += random( "Random item documents", new ItemConverter( new Category( "Item", "Item", new String[]{ "Cost", "Level", "Rarity", "SourceBook" } ) ), count / 2, rng, fallback );
+
+      if ( mismatch > 0 ) throw new IllegalStateException( "TextExtractor differs from regex text conversion." );
+   }
+
+   private static int random ( String name, Converter converter, int count, Random rng, int[] fallback ) {
+      final StringBuilder doc = new StringBuilder( 1024 );
+      int mismatch = 0;
+      fallback[0] = 0;
+      for ( int i = 0 ; i < count ; i++ ) {
+         doc.setLength( 0 );
+         if ( rng.nextInt( 4 ) == 0 ) doc.append( "<h1 class=miset>" );
+         for ( int len = rng.nextInt( 25 ) ; len > 0 ; len-- )
+            doc.append( PIECES[ rng.nextInt( PIECES.length ) ] );
+         if ( ! check( converter, doc.toString(), fallback ) ) ++mismatch;
+      }
+      System.out.printf( "%s: %d documents, %d mismatch, %d fallback%n", name, count, mismatch, fallback[0] );
+      return mismatch;
+   }
+
+   private static int shown;
+
+   private static boolean check ( Converter converter, String data, int[] fallback ) {
+      final String expected = converter.textDataByRegex( legacyExclude( converter, data ) );
+      final String actual = converter.textExtractor.extract( data, ( text ) -> {
+         ++fallback[0];
+         return converter.textDataByRegex( text );
+      } );
+      if ( expected.equals( actual ) ) return true;
+      if ( ++shown <= 10 )
+         System.out.printf( "Mismatch%n  Input     %s%n  Regex     %s%n  Extractor %s%n", escape( data ), escape( expected ), escape( actual ) );
+      return false;
+   }
+
+   // Item set exclusion of the original ItemConverter.textData
+   private static String legacyExclude ( Converter converter, String data ) {
+      if ( converter instanceof ItemConverter && data.startsWith( "<h1 class=miset>" ) )
+         return data.replaceFirst( "<h1 class=mihead>.*(?=<p class=publishedIn>)", "" );
+      return data;
+   }
+
+   private static String escape ( String text ) {
+      return text.replace( "\n", "\\n" ).replace( "\r", "\\r" );
+   }
+}
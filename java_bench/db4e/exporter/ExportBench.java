@@ -0,0 +1,111 @@
+package db4e.exporter;
+
+import db4e.bench.SyntheticCompendium;
+import db4e.controller.ProgressState;
+import db4e.converter.Convert;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Export the whole synthetic compendium with one exporter per operation.
+ * Main export covers convert and ExporterMain.writeCategory, but not the viewer and catalog.
+ * Converted entries and sorted categories are reset before each operation, so that every operation converts.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ExportBench {
+
+   @Param({ "Main", "Html", "Csv", "Tsv", "Json", "Sql", "Xlsx" })
+   public String exporter;
+
+   @Param( "200" )
+   public int size;
+
+   private List<Category> categories; // Raw categories
+   private final List<Category> exportCategories = new ArrayList<>();
+   private final ProgressState state = new ProgressState( ( progress ) -> {} );
+   private Path dir;
+
+   @Setup public void setup () throws IOException {
+      categories = new SyntheticCompendium( 1 ).generate( size );
+      dir = Files.createTempDirectory( "db4e_bench" );
+   }
+
+   @Setup( Level.Invocation ) public void resetConversion () {
+      if ( ! exporter.equals( "Main" ) ) return;
+      for ( Category category : exportCategories )
+         for ( Entry entry : category.entries )
+            entry.release();
+      exportCategories.clear(); // Rebuilt without sorted entries and index
+      Convert.reset();
+      Convert.beforeConvert( categories, exportCategories );
+   }
+
+   @TearDown public void tearDown () throws IOException {
+      try ( Stream<Path> files = Files.walk( dir ) ) {
+         files.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+      }
+   }
+
+   @Benchmark public int export () throws IOException, InterruptedException {
+      state.reset();
+      try ( Exporter exp = create() ) {
+         if ( exp instanceof ExporterMain ) {
+            new File( dir.toFile(), "main_files" ).mkdirs(); // Skip viewer check and viewer
+            ( (ExporterMain) exp ).resetManifest();
+            for ( Category category : exportCategories )
+               exp.export( category );
+         } else {
+            exp.preExport( categories );
+            for ( Category category : categories )
+               exp.export( category );
+            exp.postExport( categories );
+         }
+      }
+      return state.get();
+   }
+
+   private Exporter create () {
+      final Exporter result;
+      final String file;
+      switch ( exporter ) {
+         case "Main" : result = new ExporterMain();    file = "main.html"; break;
+         case "Html" : result = new ExporterRawHtml(); file = "raw.html"; break;
+         case "Csv"  : result = new ExporterRawCsv();  file = "raw.csv"; break;
+         case "Tsv"  : result = new ExporterRawTsv();  file = "raw.tsv"; break;
+         case "Json" : result = new ExporterRawJson(); file = "raw.json"; break;
+         case "Sql"  : result = new ExporterRawSql();  file = "raw.sql";
+                       ( (ExporterRawSql) result ).setDialect( ExporterRawSql.Dialect.MYSQL ); break;
+         case "Xlsx" : result = new ExporterRawXlsx(); file = "raw.xlsx"; break;
+         default : throw new IllegalArgumentException( exporter );
+      }
+      result.setState( new File( dir.toFile(), file ), ( status ) -> {}, state );
+      return result;
+   }
+}
@@ -0,0 +1,111 @@
+package sheepy.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fuzz CsvCodec against the regex csv parser and builder that it replaced.
+ *
+ * Random field arrays must build the same line as the old builder, and parse back to the same fields.
+ * Random lines must parse to the same fields as the old parser.  Lines that the old parser reported as malformed must be rejected.
+ *
+ * Arguments: [seed] [rounds]
+ */
+public class CsvCodecFuzz {
+
+   // Characters that matter to csv, plus plain and non-ascii text.
+   private static final String ALPHABET = "ab ,\"\"\n\réx";
+
+   public static void main ( String[] args ) {
+      final Random rng = new Random( args.length > 0 ? Long.parseLong( args[0] ) : 1 );
+      final int rounds = args.length > 1 ? Integer.parseInt( args[1] ) : 300_000;
+      int build = 0, roundTrip = 0, parse = 0, malformed = 0;
+
+      for ( int i = 0 ; i < rounds ; i++ ) {
+         final String[] fields = new String[ 1 + rng.nextInt( 6 ) ];
+         for ( int f = 0 ; f < fields.length ; f++ )
+            fields[ f ] = random( rng, 6 );
+         final String line = CsvCodec.build( fields ).toString();
+         if ( ! line.equals( legacyBuild( fields ) ) )
+            build += report( "Build", Arrays.toString( fields ), legacyBuild( fields ), line );
+         if ( ! Arrays.equals( fields, CsvCodec.parse( line ) ) )
+            roundTrip += report( "Round trip", Arrays.toString( fields ), line, Arrays.toString( CsvCodec.parse( line ) ) );
+
+         final String text = random( rng, 10 );
+         final String[] expected = legacyParse( text );
+         String[] actual;
+         try {
+            actual = CsvCodec.parse( text );
+         } catch ( IllegalArgumentException ex ) {
+            actual = null;
+         }
+         if ( expected == null ) ++malformed;
+         if ( ! Arrays.equals( expected, actual ) )
+            parse += report( "Parse", text, Arrays.toString( expected ), Arrays.toString( actual ) );
+      }
+
+      System.out.printf( "%d rounds: %d build, %d round trip, %d parse mismatch.  %d malformed lines.%n", rounds, build, roundTrip, parse, malformed );
+      if ( build + roundTrip + parse > 0 ) throw new IllegalStateException( "CsvCodec differs from regex csv." );
+   }
+
+   private static String random ( Random rng, int maxLength ) {
+      final char[] result = new char[ rng.nextInt( maxLength + 1 ) ];
+      for ( int i = 0 ; i < result.length ; i++ )
+         result[ i ] = ALPHABET.charAt( rng.nextInt( ALPHABET.length() ) );
+      return new String( result );
+   }
+
+   private static int shown;
+
+   private static int report ( String type, String input, String expected, String actual ) {
+      if ( ++shown <= 10 )
+         System.out.printf( "%s mismatch%n  Input  %s%n  Regex  %s%n  Codec  %s%n", type, escape( input ), escape( expected ), escape( actual ) );
+      return 1;
+   }
+
+   private static String escape ( String text ) {
+      return text.replace( "\r", "\\r" ).replace( "\n", "\\n" );
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Regex csv, from DbAbstraction before CsvCodec
+   /////////////////////////////////////////////////////////////////////////////
+
+   private static final Matcher csvToken = Pattern.compile( "(?<=^|,)([^\"\\r\\n,]*|\"(?:\"\"|[^\"])*\")(?:,|$)" ).matcher( "" );
+   private static final Matcher csvQuotable = Pattern.compile( "[\r\n,\"]" ).matcher( "" );
+
+   // Return null where the old parser logged a parse error.
+   private static String[] legacyParse ( CharSequence line ) {
+      csvToken.reset( line );
+      final List<String> csvBuffer = new ArrayList<>();
+      int pos = 0;
+      while ( csvToken.find() ) {
+         if ( csvToken.start() != pos )
+            return null;
+         String token = csvToken.group( 1 );
+         if ( token.length() >= 2 && token.charAt(0) == '"' && token.endsWith( "\"" ) )
+            token = token.substring( 1, token.length()-1 ).replaceAll( "\"\"", "\"" );
+         csvBuffer.add(token);
+         pos = csvToken.end();
+      }
+      if ( pos != line.length() )
+         return null;
+      return csvBuffer.toArray( new String[ csvBuffer.size() ] );
+   }
+
+   private static String legacyBuild ( String[] line ) {
+      StringBuilder result = new StringBuilder(32);
+      for ( String token : line ) {
+         if ( csvQuotable.reset( token ).find() )
+            result.append( '"' ).append( token.replaceAll( "\"", "\"\"" ) ).append( "\"," );
+         else
+            result.append( token ).append( ',' );
+      }
+      result.setLength( result.length() - 1 );
+      return result.toString();
+   }
+}